@@ -31,6 +31,8 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.FastInput;
 import com.esotericsoftware.kryo.serializers.MapSerializer;
 import com.focusit.jsflight.recorder.internalevent.IdRecordInfo;
+import com.focusit.jsflight.recorder.internalevent.IndexedEventReader;
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader;
 import com.focusit.jsflight.recorder.internalevent.InternalEventRecorder;
 import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecordInformation;
 import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecorderHelper;
@@ -171,19 +173,18 @@ public class Http2JMeter
     public List<RestoredRequest> getRequests(String file, int limit) throws IOException
     {
         List<RestoredRequest> requests = new ArrayList<>();
-        FastInput input = new FastInput(new FileInputStream(file));
 
         Kryo kryo = new Kryo();
         kryo.register(HashMap.class, new MapSerializer());
-        while (input.available() > 0)
+        try (InternalEventReader reader = InternalEventReader.open(new File(file)))
         {
-            InternalEventRecorder.InternalEventRecord record = kryo.readObject(input,
-                    InternalEventRecorder.InternalEventRecord.class);
-
-            String tag = new String(record.tag).trim();
-
-            if (tag.equalsIgnoreCase(HttpRecorderHelper.HTTP_RECORDER_TAG))
+            InternalEventRecorder.InternalEventRecord record;
+            while ((record = reader.read()) != null)
             {
+                if (!HttpRecorderHelper.HTTP_RECORDER_TAG.equalsIgnoreCase(record.tag))
+                {
+                    continue;
+                }
                 HttpRecordInformation information = (HttpRecordInformation)record.data;
                 RestoredRequest request = new RestoredRequest();
 
@@ -207,6 +208,8 @@ public class Http2JMeter
 
                 request.additional = information.additional;
                 request.timestampNs = record.timestampNs;
+                request.status = information.status;
+                request.processingTimeNs = information.requestEndNs - information.requestStartNs;
 
                 if (limit > 0 && requests.size() >= limit)
                 {
@@ -227,19 +230,10 @@ public class Http2JMeter
     public List<IdRecordInfo> getIdRecords(String file) throws Exception
     {
         List<IdRecordInfo> infos = new ArrayList<>();
-        FastInput input = new FastInput(new FileInputStream(file));
-        Kryo kryo = new Kryo();
-        kryo.register(HashMap.class, new MapSerializer());
-
-        while (input.available() > 0)
+        IndexedEventReader reader = new IndexedEventReader(new File(file));
+        for (InternalEventRecorder.InternalEventRecord record : reader.readTag(IdRecordInfo.ID_RECORD_TAG))
         {
-            InternalEventRecorder.InternalEventRecord record = kryo.readObject(input,
-                    InternalEventRecorder.InternalEventRecord.class);
-            String tag = new String(record.tag).trim();
-            if (tag.equalsIgnoreCase(IdRecordInfo.ID_RECORD_TAG))
-            {
-                infos.add((IdRecordInfo)record.data);
-            }
+            infos.add((IdRecordInfo)record.data);
         }
 
         return infos;
@@ -488,6 +482,11 @@ public class Http2JMeter
         HashMap<String, String> headers;
         String payload;
         HashMap additional;
+        int status;
+        /**
+         * Time the recorded application spent on the request
+         */
+        long processingTimeNs;
 
         @Override
         public String toString()
@@ -495,7 +494,8 @@ public class Http2JMeter
             return "RestoredRequest{" + "parameters=" + parameters + ", contentLength=" + contentLength
                     + ", contentType='" + contentType + '\'' + ", uri='" + uri + '\'' + ", method='" + method + '\''
                     + ", contextPath='" + contextPath + '\'' + ", cookies=" + cookies + ", payload=" + payload
-                    + ", additional=" + additional + '}';
+                    + ", additional=" + additional + ", status=" + status + ", processingTimeNs=" + processingTimeNs
+                    + '}';
         }
     }
 
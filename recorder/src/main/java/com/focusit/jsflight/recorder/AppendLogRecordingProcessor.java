@@ -0,0 +1,526 @@
+package com.focusit.jsflight.recorder;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * Stores tracked events to files, one sequence of segment files per browser tab, i.e. per event tabuuid
+ * (or uuid). Events without either go to the "unknown" session.
+ * <p>
+ * Segments are named {@code <session>.<n>.ndjson} or {@code <session>.<n>.bin} and rotated when they grow
+ * above the max segment size. Every opened segment is appended to the {@code sessions.idx} index of the directory,
+ * one JSON line per segment with session, segment file name and open time.
+ * <p>
+ * Batches are written by a single writer thread with group commit: batches of concurrent requests queued
+ * meanwhile are written together and synced to disk once. A request is answered only after its batch is synced.
+ * A batch the writer thread hasn't taken within {@value #COMMIT_TIMEOUT_MS} ms is cancelled and fails its request,
+ * the browser sends it again later. A batch already taken is always waited for, so it is never stored twice.
+ * <p>
+ * Binary segments start with {@link #BINARY_MAGIC} and {@link #BINARY_VERSION}, followed by events:
+ * int length, int CRC32 and UTF-8 bytes of the event JSON
+ */
+public class AppendLogRecordingProcessor implements RecordingProcessor, Closeable
+{
+    public enum Format
+    {
+        NDJSON("ndjson"), BINARY("bin");
+
+        private final String extension;
+
+        Format(String extension)
+        {
+            this.extension = extension;
+        }
+    }
+
+    public static final int BINARY_MAGIC = 0x4A534645; // JSFE
+    public static final byte BINARY_VERSION = 1;
+    public static final String INDEX_FILE = "sessions.idx";
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final Logger LOG = LoggerFactory.getLogger(AppendLogRecordingProcessor.class);
+    private static final String UNKNOWN_SESSION = "unknown";
+    private static final int MAX_OPEN_SEGMENTS = 256;
+    private static final int MAX_GROUP_SIZE = 256;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final long COMMIT_TIMEOUT_MS = 30000;
+    private static final Commit STOP = new Commit(Collections.emptyMap());
+
+    private final File directory;
+    private final Format format;
+    private final long maxSegmentSize;
+    private final BlockingQueue<Commit> commits = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    // guarded by commits, so no batch is queued after STOP
+    private boolean closed = false;
+
+    // used by writer thread only
+    private final Map<String, SessionSegment> openSegments = new LinkedHashMap<String, SessionSegment>(16, 0.75f,
+            true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SessionSegment> eldest)
+        {
+            if (size() <= MAX_OPEN_SEGMENTS)
+            {
+                return false;
+            }
+            closeSegment(eldest.getValue());
+            return true;
+        }
+    };
+    private final CRC32 crc = new CRC32();
+    private FileOutputStream index;
+
+    public AppendLogRecordingProcessor(File directory)
+    {
+        this(directory, Format.NDJSON, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param directory directory for segment files and the index
+     * @param maxSegmentSize size in bytes a segment is rotated after
+     */
+    public AppendLogRecordingProcessor(File directory, Format format, long maxSegmentSize)
+    {
+        this.directory = directory;
+        this.format = format;
+        this.maxSegmentSize = maxSegmentSize;
+        this.writer = new Thread(this::write, "recording-append-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void processDownloadRequest(HttpServletRequest req, HttpServletResponse resp, String data)
+            throws IOException
+    {
+        String name = "record_" + System.currentTimeMillis() + ".json";
+        resp.setContentType("application/json");
+        resp.setHeader("Content-Disposition", "attachment; filename=\"" + name + "\"");
+        resp.getWriter().println(data);
+        resp.getWriter().flush();
+    }
+
+    /**
+     * Stores the last events of the recording
+     */
+    @Override
+    public void processRecordStop(HttpServletRequest req, HttpServletResponse resp, String data) throws IOException
+    {
+        processStoreEvent(req, resp, new StringReader(data));
+    }
+
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, String data) throws IOException
+    {
+        processStoreEvent(req, resp, new StringReader(data));
+    }
+
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) throws IOException
+    {
+        Map<String, List<String>> events = new HashMap<>();
+        try
+        {
+            EventBatchReader batch = new EventBatchReader(data);
+            while (batch.hasNext())
+            {
+                String event = batch.next();
+                events.computeIfAbsent(getSession(event), session -> new ArrayList<>()).add(event);
+            }
+        }
+        catch (UncheckedIOException e)
+        {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        try
+        {
+            store(events);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Can't store events to " + directory, e);
+            resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
+        }
+        resp.getWriter().print("{\"OK\"}");
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    @Override
+    public void processError(HttpServletRequest req, HttpServletResponse resp, String urlEncodedData)
+            throws IOException
+    {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    /**
+     * Writes and syncs events grouped by session, waits for the writer thread to finish
+     */
+    private void store(Map<String, List<String>> events) throws IOException
+    {
+        if (events.isEmpty())
+        {
+            return;
+        }
+        Commit commit = new Commit(events);
+        synchronized (commits)
+        {
+            if (closed)
+            {
+                throw new IOException("Processor is closed");
+            }
+            commits.add(commit);
+        }
+        try
+        {
+            if (!commit.done.await(COMMIT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                if (commit.taken.compareAndSet(false, true))
+                {
+                    commits.remove(commit);
+                    throw new IOException("Events are not stored in " + COMMIT_TIMEOUT_MS + " ms");
+                }
+                // the writer is storing the batch already
+                commit.done.await();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while storing events");
+        }
+        if (commit.error != null)
+        {
+            throw new IOException("Can't store events", commit.error);
+        }
+    }
+
+    /**
+     * Stores queued batches and closes segment files
+     */
+    @Override
+    public void close()
+    {
+        synchronized (commits)
+        {
+            if (!closed)
+            {
+                closed = true;
+                commits.add(STOP);
+            }
+        }
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return tabuuid or uuid of the event, the session of the event
+     */
+    static String getSession(String event)
+    {
+        String session = getStringField(event, "tabuuid");
+        if (session == null)
+        {
+            session = getStringField(event, "uuid");
+        }
+        if (session == null || session.isEmpty())
+        {
+            return UNKNOWN_SESSION;
+        }
+        StringBuilder name = new StringBuilder(session.length());
+        for (int i = 0; i < session.length() && i < 128; i++)
+        {
+            char c = session.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '-' || c == '_' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Finds the value of a string field without parsing the event
+     */
+    private static String getStringField(String event, String field)
+    {
+        String key = '"' + field + '"';
+        int position = event.indexOf(key);
+        while (position >= 0)
+        {
+            int i = skipWhitespace(event, position + key.length());
+            if (i < event.length() && event.charAt(i) == ':')
+            {
+                i = skipWhitespace(event, i + 1);
+                if (i < event.length() && event.charAt(i) == '"')
+                {
+                    int end = event.indexOf('"', i + 1);
+                    return end < 0 ? null : event.substring(i + 1, end);
+                }
+                return null;
+            }
+            position = event.indexOf(key, position + 1);
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String event, int position)
+    {
+        while (position < event.length() && Character.isWhitespace(event.charAt(position)))
+        {
+            position++;
+        }
+        return position;
+    }
+
+    private void write()
+    {
+        List<Commit> group = new ArrayList<>();
+        Set<SessionSegment> written = new HashSet<>();
+        boolean stopping = false;
+        try
+        {
+            while (!stopping)
+            {
+                group.clear();
+                written.clear();
+                group.add(commits.take());
+                commits.drainTo(group, MAX_GROUP_SIZE - 1);
+                stopping = group.remove(STOP);
+                // cancelled by their requests
+                group.removeIf(commit -> !commit.taken.compareAndSet(false, true));
+                try
+                {
+                    for (Commit commit : group)
+                    {
+                        for (Map.Entry<String, List<String>> session : commit.events.entrySet())
+                        {
+                            written.add(write(session.getKey(), session.getValue()));
+                        }
+                    }
+                    for (SessionSegment segment : written)
+                    {
+                        segment.sync();
+                    }
+                }
+                catch (IOException | RuntimeException e)
+                {
+                    LOG.error("Can't write events to " + directory, e);
+                    // a failed segment is reopened by the next batch
+                    written.forEach(AppendLogRecordingProcessor::closeQuietly);
+                    openSegments.values().removeAll(written);
+                    group.forEach(commit -> commit.error = e);
+                }
+                group.forEach(commit -> commit.done.countDown());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            LOG.warn("Append log writer is interrupted");
+        }
+        finally
+        {
+            openSegments.values().forEach(AppendLogRecordingProcessor::closeSegment);
+            openSegments.clear();
+            IOUtils.closeQuietly(index);
+            Commit commit;
+            while ((commit = commits.poll()) != null)
+            {
+                commit.error = new IOException("Processor is closed");
+                commit.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Appends events of the session rotating its segments
+     *
+     * @return the last segment written
+     */
+    private SessionSegment write(String session, List<String> events) throws IOException
+    {
+        SessionSegment segment = getSegment(session);
+        for (String event : events)
+        {
+            if (segment.size >= maxSegmentSize)
+            {
+                openSegments.remove(session);
+                segment.sync();
+                closeQuietly(segment);
+                segment = openSegment(session, segment.number + 1);
+            }
+            segment.append(event);
+        }
+        return segment;
+    }
+
+    /**
+     * @return open segment of the session, otherwise the last existing one is reopened
+     */
+    private SessionSegment getSegment(String session) throws IOException
+    {
+        SessionSegment segment = openSegments.get(session);
+        if (segment != null)
+        {
+            return segment;
+        }
+        int last = 0;
+        while (getSegmentFile(session, last + 1).exists())
+        {
+            last++;
+        }
+        return openSegment(session, Math.max(last, 1));
+    }
+
+    private SessionSegment openSegment(String session, int number) throws IOException
+    {
+        File file = getSegmentFile(session, number);
+        boolean created = !file.exists() || file.length() == 0;
+        SessionSegment segment = new SessionSegment(file, number);
+        if (created)
+        {
+            if (format == Format.BINARY)
+            {
+                DataOutputStream header = new DataOutputStream(segment.out);
+                header.writeInt(BINARY_MAGIC);
+                header.writeByte(BINARY_VERSION);
+                segment.size += 5;
+            }
+            addToIndex(session, file);
+        }
+        openSegments.put(session, segment);
+        return segment;
+    }
+
+    private void addToIndex(String session, File segment) throws IOException
+    {
+        if (index == null)
+        {
+            directory.mkdirs();
+            index = new FileOutputStream(new File(directory, INDEX_FILE), true);
+        }
+        String entry = "{\"session\":\"" + session + "\",\"segment\":\"" + segment.getName() + "\",\"opened\":"
+                + System.currentTimeMillis() + "}\n";
+        index.write(entry.getBytes(StandardCharsets.UTF_8));
+        index.getChannel().force(false);
+    }
+
+    private File getSegmentFile(String session, int number)
+    {
+        return new File(directory, session + "." + number + "." + format.extension);
+    }
+
+    private static void closeQuietly(SessionSegment segment)
+    {
+        segment.closed = true;
+        IOUtils.closeQuietly(segment.out);
+    }
+
+    private static void closeSegment(SessionSegment segment)
+    {
+        try
+        {
+            segment.sync();
+        }
+        catch (IOException e)
+        {
+            LOG.error("Can't sync segment", e);
+        }
+        closeQuietly(segment);
+    }
+
+    private class SessionSegment
+    {
+        final FileOutputStream file;
+        final OutputStream out;
+        final int number;
+        long size;
+        boolean closed = false;
+
+        SessionSegment(File segment, int number) throws IOException
+        {
+            this.number = number;
+            directory.mkdirs();
+            this.file = new FileOutputStream(segment, true);
+            this.out = new BufferedOutputStream(file, WRITE_BUFFER_SIZE);
+            this.size = segment.length();
+        }
+
+        void append(String event) throws IOException
+        {
+            byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+            if (format == Format.NDJSON)
+            {
+                if (event.indexOf('\n') >= 0 || event.indexOf('\r') >= 0)
+                {
+                    // raw line breaks may only be whitespace between JSON tokens
+                    bytes = event.replace('\n', ' ').replace('\r', ' ').getBytes(StandardCharsets.UTF_8);
+                }
+                out.write(bytes);
+                out.write('\n');
+                size += bytes.length + 1;
+                return;
+            }
+            crc.reset();
+            crc.update(bytes);
+            writeInt(bytes.length);
+            writeInt((int)crc.getValue());
+            out.write(bytes);
+            size += 8 + bytes.length;
+        }
+
+        /**
+         * Does nothing for a closed segment, it is synced when closed
+         */
+        void sync() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            out.flush();
+            file.getChannel().force(false);
+        }
+
+        private void writeInt(int value) throws IOException
+        {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+    }
+
+    private static class Commit
+    {
+        final Map<String, List<String>> events;
+        final CountDownLatch done = new CountDownLatch(1);
+        // set by the writer thread before writing or by the request thread cancelling the batch
+        final AtomicBoolean taken = new AtomicBoolean();
+        volatile Exception error;
+
+        Commit(Map<String, List<String>> events)
+        {
+            this.events = events;
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.focusit.jsflight.recorder;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous ingestion of tracked data: a batch of events is acknowledged as soon as it is queued,
+ * a bounded pool of workers passes queued batches to the wrapped processor. When the queue is full the batch is
+ * answered with 503 and Retry-After, so the browser keeps its events and sends them later.
+ * Container threads stay free even when the wrapped processor is slow.
+ * <p>
+ * Download, stop and error requests are passed to the wrapped processor synchronously.
+ * <p>
+ * Queued batches outlive their requests, so the wrapped processor gets a {@link DetachedHttpServletRequest}
+ * copy of the original one and a response that discards the body. Errors the processor throws or answers with
+ * are logged.
+ * Batches are processed concurrently by several workers and may complete out of order.
+ * <p>
+ * A batch is read into memory before it is queued, even when the servlet streams it,
+ * so the queue size bounds the memory taken by waiting batches.
+ * <p>
+ * Usage: {@code RecorderStorageServlet.setProcessor(new AsyncRecordingProcessor(processor, 4, 1000))}
+ */
+public class AsyncRecordingProcessor implements RecordingProcessor, Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncRecordingProcessor.class);
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 5;
+    private static final long SHUTDOWN_TIMEOUT_MS = 10000;
+
+    private final RecordingProcessor processor;
+    private final ThreadPoolExecutor workers;
+    private volatile int retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+
+    /**
+     * @param processor processor to pass queued batches to
+     * @param threads number of workers
+     * @param queueSize max number of batches waiting for a worker
+     */
+    public AsyncRecordingProcessor(RecordingProcessor processor, int threads, int queueSize)
+    {
+        this.processor = processor;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), task -> {
+                    Thread thread = new Thread(task, "recording-processor-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * @param seconds delay the browser is asked to wait before resending a rejected batch
+     */
+    public void setRetryAfter(int seconds)
+    {
+        this.retryAfterSeconds = seconds;
+    }
+
+    /**
+     * @return number of batches waiting for a worker
+     */
+    public int getQueuedBatches()
+    {
+        return workers.getQueue().size();
+    }
+
+    @Override
+    public void processDownloadRequest(HttpServletRequest req, HttpServletResponse resp, String data)
+            throws IOException
+    {
+        processor.processDownloadRequest(req, resp, data);
+    }
+
+    @Override
+    public void processRecordStop(HttpServletRequest req, HttpServletResponse resp, String data) throws IOException
+    {
+        processor.processRecordStop(req, resp, data);
+    }
+
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, String data) throws IOException
+    {
+        HttpServletRequest detached = new DetachedHttpServletRequest(req);
+        enqueue(resp, () -> processor.processStoreEvent(detached, discardingResponse(detached), data));
+    }
+
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) throws IOException
+    {
+        if (isFull())
+        {
+            // don't read a batch that will be rejected anyway
+            reject(resp);
+            return;
+        }
+        String events = IOUtils.toString(data);
+        HttpServletRequest detached = new DetachedHttpServletRequest(req);
+        enqueue(resp, () -> processor.processStoreEvent(detached, discardingResponse(detached),
+                new StringReader(events)));
+    }
+
+    @Override
+    public void processError(HttpServletRequest req, HttpServletResponse resp, String urlEncodedData)
+            throws IOException
+    {
+        processor.processError(req, resp, urlEncodedData);
+    }
+
+    /**
+     * Stops accepting batches and waits a while for queued ones to be processed
+     */
+    @Override
+    public void close()
+    {
+        workers.shutdown();
+        try
+        {
+            if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+            {
+                LOG.warn("{} batches of events are not processed", workers.getQueue().size());
+                workers.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isFull()
+    {
+        return workers.getQueue().remainingCapacity() == 0;
+    }
+
+    private void enqueue(HttpServletResponse resp, BatchTask task) throws IOException
+    {
+        try
+        {
+            workers.execute(() -> {
+                try
+                {
+                    task.process();
+                }
+                catch (Exception e)
+                {
+                    LOG.error("Can't process a queued batch of events", e);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            reject(resp);
+            return;
+        }
+        resp.getWriter().print("{\"OK\"}");
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
+    private void reject(HttpServletResponse resp) throws IOException
+    {
+        resp.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+
+    private interface BatchTask
+    {
+        void process() throws IOException;
+    }
+
+    /**
+     * @return response that discards the body and logs errors the wrapped processor answers the batch with,
+     * the browser has got its answer already
+     */
+    private static HttpServletResponse discardingResponse(HttpServletRequest detached)
+    {
+        return (HttpServletResponse)Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName())
+                    {
+                    case "sendError":
+                        LOG.error("Queued batch of {} is not processed: {} {}", detached, args[0],
+                                args.length > 1 ? args[1] : "");
+                        return null;
+                    case "setStatus":
+                        if ((Integer)args[0] >= HttpServletResponse.SC_BAD_REQUEST)
+                        {
+                            LOG.error("Queued batch of {} is not processed: {}", detached, args[0]);
+                        }
+                        return null;
+                    case "getWriter":
+                        return new PrintWriter(new NullWriter());
+                    case "getOutputStream":
+                        return new DiscardingOutputStream();
+                    case "getStatus":
+                        return HttpServletResponse.SC_OK;
+                    case "getHeaders":
+                    case "getHeaderNames":
+                        return Collections.emptyList();
+                    case "toString":
+                        return "Discarding response";
+                    default:
+                        // setters and the rest of getters
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+
+    /**
+     * @return identity based equals and hashCode, zero or false for other primitive results, null otherwise
+     */
+    private static Object defaultValue(Object proxy, Method method, Object[] args)
+    {
+        switch (method.getName())
+        {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        default:
+            Class<?> type = method.getReturnType();
+            if (type == boolean.class)
+            {
+                return false;
+            }
+            if (type == int.class)
+            {
+                return 0;
+            }
+            if (type == long.class)
+            {
+                return 0L;
+            }
+            return null;
+        }
+    }
+
+    private static class DiscardingOutputStream extends ServletOutputStream
+    {
+        @Override
+        public boolean isReady()
+        {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+        }
+
+        @Override
+        public void write(int b)
+        {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+}
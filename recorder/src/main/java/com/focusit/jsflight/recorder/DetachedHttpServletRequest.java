@@ -0,0 +1,613 @@
+package com.focusit.jsflight.recorder;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copy of a request that outlives it: headers, parameters, cookies, attributes, paths, addresses, user and session
+ * are taken when the copy is made and answered after the original request is completed and recycled.
+ * <p>
+ * The body is consumed already, so the request has an empty body. The session is the one the request had,
+ * a new one can't be created any more. Roles of the user are not known, async processing, authentication,
+ * upgrade and dispatching are not available and fail the way a container fails them for a completed request
+ */
+class DetachedHttpServletRequest implements HttpServletRequest
+{
+    private final Map<String, List<String>> headers = new LinkedHashMap<>();
+    private final Map<String, String[]> parameters;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final Cookie[] cookies;
+    private final List<Locale> locales;
+    private final HttpSession session;
+    private final ServletContext servletContext;
+    private final StringBuffer requestUrl;
+    private final String authType;
+    private final Principal userPrincipal;
+    private final String remoteUser;
+    private final String method;
+    private final String requestUri;
+    private final String queryString;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String pathTranslated;
+    private final String requestedSessionId;
+    private final boolean requestedSessionIdValid;
+    private final boolean requestedSessionIdFromCookie;
+    private final boolean requestedSessionIdFromUrl;
+    private final String characterEncoding;
+    private final String contentType;
+    private final long contentLength;
+    private final String protocol;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String remoteAddr;
+    private final String remoteHost;
+    private final int remotePort;
+    private final String localName;
+    private final String localAddr;
+    private final int localPort;
+    private final DispatcherType dispatcherType;
+
+    DetachedHttpServletRequest(HttpServletRequest req)
+    {
+        for (Enumeration<String> names = req.getHeaderNames(); names != null && names.hasMoreElements();)
+        {
+            String name = names.nextElement();
+            headers.put(name.toLowerCase(), Collections.list(req.getHeaders(name)));
+        }
+        Map<String, String[]> parameterMap = req.getParameterMap();
+        parameters = parameterMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(parameterMap);
+        for (Enumeration<String> names = req.getAttributeNames(); names != null && names.hasMoreElements();)
+        {
+            String name = names.nextElement();
+            Object value = req.getAttribute(name);
+            if (value != null)
+            {
+                attributes.put(name, value);
+            }
+        }
+        Cookie[] requestCookies = req.getCookies();
+        cookies = requestCookies == null ? null : requestCookies.clone();
+        Enumeration<Locale> requestLocales = req.getLocales();
+        locales = requestLocales == null ? new ArrayList<>() : Collections.list(requestLocales);
+        session = req.getSession(false);
+        servletContext = req.getServletContext();
+        StringBuffer url = req.getRequestURL();
+        requestUrl = url == null ? null : new StringBuffer(url);
+        authType = req.getAuthType();
+        userPrincipal = req.getUserPrincipal();
+        remoteUser = req.getRemoteUser();
+        method = req.getMethod();
+        requestUri = req.getRequestURI();
+        queryString = req.getQueryString();
+        contextPath = req.getContextPath();
+        servletPath = req.getServletPath();
+        pathInfo = req.getPathInfo();
+        pathTranslated = req.getPathTranslated();
+        requestedSessionId = req.getRequestedSessionId();
+        requestedSessionIdValid = req.isRequestedSessionIdValid();
+        requestedSessionIdFromCookie = req.isRequestedSessionIdFromCookie();
+        requestedSessionIdFromUrl = req.isRequestedSessionIdFromURL();
+        characterEncoding = req.getCharacterEncoding();
+        contentType = req.getContentType();
+        contentLength = req.getContentLengthLong();
+        protocol = req.getProtocol();
+        scheme = req.getScheme();
+        serverName = req.getServerName();
+        serverPort = req.getServerPort();
+        secure = req.isSecure();
+        remoteAddr = req.getRemoteAddr();
+        remoteHost = req.getRemoteHost();
+        remotePort = req.getRemotePort();
+        localName = req.getLocalName();
+        localAddr = req.getLocalAddr();
+        localPort = req.getLocalPort();
+        dispatcherType = req.getDispatcherType();
+    }
+
+    @Override
+    public String getAuthType()
+    {
+        return authType;
+    }
+
+    @Override
+    public Cookie[] getCookies()
+    {
+        return cookies == null ? null : cookies.clone();
+    }
+
+    /**
+     * @return time of an HTTP date header in ms, -1 if there is no header
+     */
+    @Override
+    public long getDateHeader(String name)
+    {
+        String header = getHeader(name);
+        if (header == null)
+        {
+            return -1L;
+        }
+        try
+        {
+            return ZonedDateTime.parse(header, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        }
+        catch (DateTimeParseException e)
+        {
+            throw new IllegalArgumentException("Not a date: " + header, e);
+        }
+    }
+
+    @Override
+    public String getHeader(String name)
+    {
+        List<String> header = headers.get(name.toLowerCase());
+        return header == null || header.isEmpty() ? null : header.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name)
+    {
+        return Collections.enumeration(headers.getOrDefault(name.toLowerCase(), Collections.emptyList()));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames()
+    {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name)
+    {
+        String header = getHeader(name);
+        return header == null ? -1 : Integer.parseInt(header);
+    }
+
+    @Override
+    public String getMethod()
+    {
+        return method;
+    }
+
+    @Override
+    public String getPathInfo()
+    {
+        return pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated()
+    {
+        return pathTranslated;
+    }
+
+    @Override
+    public String getContextPath()
+    {
+        return contextPath;
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String getRemoteUser()
+    {
+        return remoteUser;
+    }
+
+    /**
+     * @return false, roles are not known after the request is completed
+     */
+    @Override
+    public boolean isUserInRole(String role)
+    {
+        return false;
+    }
+
+    @Override
+    public Principal getUserPrincipal()
+    {
+        return userPrincipal;
+    }
+
+    @Override
+    public String getRequestedSessionId()
+    {
+        return requestedSessionId;
+    }
+
+    @Override
+    public String getRequestURI()
+    {
+        return requestUri;
+    }
+
+    @Override
+    public StringBuffer getRequestURL()
+    {
+        return requestUrl == null ? null : new StringBuffer(requestUrl);
+    }
+
+    @Override
+    public String getServletPath()
+    {
+        return servletPath;
+    }
+
+    /**
+     * @return the session of the request, it may be invalidated by now
+     * @throws IllegalStateException if a session is to be created, the response is committed already
+     */
+    @Override
+    public HttpSession getSession(boolean create)
+    {
+        if (session == null && create)
+        {
+            throw new IllegalStateException("Cannot create a session after the response has been committed");
+        }
+        return session;
+    }
+
+    @Override
+    public HttpSession getSession()
+    {
+        return getSession(true);
+    }
+
+    @Override
+    public String changeSessionId()
+    {
+        throw new IllegalStateException("Session id can't be changed after the response has been committed");
+    }
+
+    @Override
+    public boolean isRequestedSessionIdValid()
+    {
+        return requestedSessionIdValid;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromCookie()
+    {
+        return requestedSessionIdFromCookie;
+    }
+
+    @Override
+    public boolean isRequestedSessionIdFromURL()
+    {
+        return requestedSessionIdFromUrl;
+    }
+
+    @Override
+    @Deprecated
+    public boolean isRequestedSessionIdFromUrl()
+    {
+        return requestedSessionIdFromUrl;
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws ServletException
+    {
+        throw new ServletException("Request is completed already");
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException
+    {
+        throw new ServletException("Request is completed already");
+    }
+
+    @Override
+    public void logout() throws ServletException
+    {
+        throw new ServletException("Request is completed already");
+    }
+
+    @Override
+    public Collection<Part> getParts()
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Part getPart(String name)
+    {
+        return null;
+    }
+
+    @Override
+    public <T extends HttpUpgradeHandler> T upgrade(Class<T> handlerClass) throws ServletException
+    {
+        throw new ServletException("Request is completed already");
+    }
+
+    @Override
+    public Object getAttribute(String name)
+    {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames()
+    {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override
+    public String getCharacterEncoding()
+    {
+        return characterEncoding;
+    }
+
+    /**
+     * Does nothing, the body is read already
+     */
+    @Override
+    public void setCharacterEncoding(String env)
+    {
+    }
+
+    @Override
+    public int getContentLength()
+    {
+        return contentLength > Integer.MAX_VALUE ? -1 : (int)contentLength;
+    }
+
+    @Override
+    public long getContentLengthLong()
+    {
+        return contentLength;
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    /**
+     * @return empty stream, the body is read already and passed to the processor as data
+     */
+    @Override
+    public ServletInputStream getInputStream()
+    {
+        return new ServletInputStream()
+        {
+            @Override
+            public boolean isFinished()
+            {
+                return true;
+            }
+
+            @Override
+            public boolean isReady()
+            {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener)
+            {
+                throw new IllegalStateException("Request is completed already");
+            }
+
+            @Override
+            public int read()
+            {
+                return -1;
+            }
+        };
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        String[] parameter = parameters.get(name);
+        return parameter == null || parameter.length == 0 ? null : parameter[0];
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames()
+    {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        return parameters.get(name);
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap()
+    {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override
+    public String getProtocol()
+    {
+        return protocol;
+    }
+
+    @Override
+    public String getScheme()
+    {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName()
+    {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort()
+    {
+        return serverPort;
+    }
+
+    /**
+     * @return empty reader, see {@link #getInputStream()}
+     */
+    @Override
+    public BufferedReader getReader()
+    {
+        return new BufferedReader(new StringReader(""));
+    }
+
+    @Override
+    public String getRemoteAddr()
+    {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost()
+    {
+        return remoteHost;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value)
+    {
+        if (value == null)
+        {
+            attributes.remove(name);
+        }
+        else
+        {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name)
+    {
+        attributes.remove(name);
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        return locales.isEmpty() ? Locale.getDefault() : locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales()
+    {
+        return Collections.enumeration(locales.isEmpty() ? Collections.singletonList(Locale.getDefault()) : locales);
+    }
+
+    @Override
+    public boolean isSecure()
+    {
+        return secure;
+    }
+
+    /**
+     * @return null, a completed request can't be dispatched
+     */
+    @Override
+    public RequestDispatcher getRequestDispatcher(String path)
+    {
+        return null;
+    }
+
+    @Override
+    @Deprecated
+    public String getRealPath(String path)
+    {
+        return servletContext == null ? null : servletContext.getRealPath(path);
+    }
+
+    @Override
+    public int getRemotePort()
+    {
+        return remotePort;
+    }
+
+    @Override
+    public String getLocalName()
+    {
+        return localName;
+    }
+
+    @Override
+    public String getLocalAddr()
+    {
+        return localAddr;
+    }
+
+    @Override
+    public int getLocalPort()
+    {
+        return localPort;
+    }
+
+    @Override
+    public ServletContext getServletContext()
+    {
+        return servletContext;
+    }
+
+    @Override
+    public AsyncContext startAsync()
+    {
+        throw new IllegalStateException("Request is completed already");
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse)
+    {
+        throw new IllegalStateException("Request is completed already");
+    }
+
+    @Override
+    public boolean isAsyncStarted()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isAsyncSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public AsyncContext getAsyncContext()
+    {
+        throw new IllegalStateException("Async processing is not started");
+    }
+
+    @Override
+    public DispatcherType getDispatcherType()
+    {
+        return dispatcherType;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Detached " + method + " " + requestUri;
+    }
+}
@@ -0,0 +1,282 @@
+package com.focusit.jsflight.recorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams events of a batch sent by a browser, a JSON array of events, without reading the whole batch in memory.
+ * storage.js sends every event as a JSON string holding the event object: such elements are returned unescaped,
+ * i.e. as the event JSON. Other elements are returned as their JSON text.
+ * <p>
+ * The reader doesn't buffer its source, wrap it with a {@link java.io.BufferedReader} if needed
+ */
+public class EventBatchReader implements Iterator<String>, Closeable
+{
+    private final Reader source;
+    private final StringBuilder event = new StringBuilder(512);
+    private int lookahead = -2;
+    private boolean started = false;
+    private boolean pending = false;
+    private boolean finished = false;
+
+    public EventBatchReader(Reader source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @throws UncheckedIOException if the source fails or the batch is not a JSON array
+     */
+    @Override
+    public boolean hasNext()
+    {
+        try
+        {
+            return advance();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String next()
+    {
+        if (!hasNext())
+        {
+            throw new NoSuchElementException();
+        }
+        try
+        {
+            pending = false;
+            event.setLength(0);
+            if (peek() == '"')
+            {
+                read();
+                readString(false);
+            }
+            else
+            {
+                readValue();
+            }
+            return event.toString();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        source.close();
+    }
+
+    /**
+     * Skips separators up to the next element
+     *
+     * @return true if there is an element
+     */
+    private boolean advance() throws IOException
+    {
+        if (pending || finished)
+        {
+            return pending;
+        }
+        int c = skipWhitespace();
+        boolean separated = false;
+        if (!started)
+        {
+            started = true;
+            if (c == -1)
+            {
+                // empty body is an empty batch
+                finished = true;
+                return false;
+            }
+            expect(c, '[');
+            c = skipWhitespace();
+        }
+        else if (c == ',')
+        {
+            read();
+            c = skipWhitespace();
+            separated = true;
+        }
+        else if (c != ']')
+        {
+            throw new IOException("Events must be separated by commas");
+        }
+        if (c == ']' && !separated)
+        {
+            read();
+            finished = true;
+            return false;
+        }
+        if (c == -1 || c == ',' || c == ']')
+        {
+            throw new IOException("Unexpected end of events");
+        }
+        pending = true;
+        return true;
+    }
+
+    /**
+     * Copies a number, literal, object or array to {@link #event}
+     */
+    private void readValue() throws IOException
+    {
+        int depth = 0;
+        while (true)
+        {
+            int c = peek();
+            if (c == -1)
+            {
+                throw new IOException("Unexpected end of events");
+            }
+            if (depth == 0 && (c == ',' || c == ']' || Character.isWhitespace(c)))
+            {
+                return;
+            }
+            read();
+            event.append((char)c);
+            if (c == '"')
+            {
+                readString(true);
+            }
+            else if (c == '{' || c == '[')
+            {
+                depth++;
+            }
+            else if (c == '}' || c == ']')
+            {
+                depth--;
+                if (depth == 0)
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a string after its opening quote to {@link #event}
+     *
+     * @param raw keep the string escaped and quoted
+     */
+    private void readString(boolean raw) throws IOException
+    {
+        while (true)
+        {
+            int c = read();
+            if (c == -1)
+            {
+                throw new IOException("Unexpected end of events");
+            }
+            if (c == '"')
+            {
+                if (raw)
+                {
+                    event.append('"');
+                }
+                return;
+            }
+            if (c != '\\')
+            {
+                event.append((char)c);
+                continue;
+            }
+            int escaped = read();
+            if (raw)
+            {
+                event.append('\\').append((char)escaped);
+                continue;
+            }
+            switch (escaped)
+            {
+            case 'b':
+                event.append('\b');
+                break;
+            case 'f':
+                event.append('\f');
+                break;
+            case 'n':
+                event.append('\n');
+                break;
+            case 'r':
+                event.append('\r');
+                break;
+            case 't':
+                event.append('\t');
+                break;
+            case 'u':
+                event.append(readUnicode());
+                break;
+            case '"':
+            case '\\':
+            case '/':
+                event.append((char)escaped);
+                break;
+            default:
+                throw new IOException("Invalid escape in events");
+            }
+        }
+    }
+
+    private char readUnicode() throws IOException
+    {
+        int code = 0;
+        for (int i = 0; i < 4; i++)
+        {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0)
+            {
+                throw new IOException("Invalid unicode escape in events");
+            }
+            code = code * 16 + digit;
+        }
+        return (char)code;
+    }
+
+    private int skipWhitespace() throws IOException
+    {
+        int c = peek();
+        while (c != -1 && Character.isWhitespace(c))
+        {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    private void expect(int c, char expected) throws IOException
+    {
+        if (c != expected)
+        {
+            throw new IOException("Events must be a JSON array");
+        }
+        read();
+    }
+
+    private int peek() throws IOException
+    {
+        if (lookahead == -2)
+        {
+            lookahead = source.read();
+        }
+        return lookahead;
+    }
+
+    private int read() throws IOException
+    {
+        int c = peek();
+        lookahead = -2;
+        return c;
+    }
+}
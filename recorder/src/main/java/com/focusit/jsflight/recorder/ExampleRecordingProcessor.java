@@ -3,6 +3,7 @@ package com.focusit.jsflight.recorder;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * A custom logic example to serve tracked data
@@ -39,6 +40,18 @@ public class ExampleRecordingProcessor implements RecordingProcessor
         resp.setStatus(HttpServletResponse.SC_OK);
     }
 
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) throws IOException
+    {
+        EventBatchReader events = new EventBatchReader(data);
+        while (events.hasNext())
+        {
+            System.err.println(events.next());
+        }
+        resp.getWriter().print("{\"OK\"}");
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+
     @Override
     public void processError(HttpServletRequest req, HttpServletResponse resp, String urlEncodedData) throws IOException {
         System.err.println(urlEncodedData);
@@ -3,6 +3,7 @@ package com.focusit.jsflight.recorder;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * Do nothing recording processor
@@ -28,6 +29,11 @@ public class NoOpRecordingProcessor implements RecordingProcessor
     {
     }
 
+    @Override
+    public void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) throws IOException
+    {
+    }
+
     @Override
     public void processError(HttpServletRequest req, HttpServletResponse resp, String urlEncodedData) throws IOException {
     }
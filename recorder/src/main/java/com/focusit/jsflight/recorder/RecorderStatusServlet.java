@@ -3,6 +3,7 @@ package com.focusit.jsflight.recorder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -12,19 +13,33 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
 
+import com.focusit.jsflight.recorder.internalevent.monitoring.RecorderMetricsRegistry;
+
 /**
- * Servlet to show some status information. Currently unused at all
+ * Servlet to show some status information.
+ * /jsflight/recorder/metrics serves metrics of all live recorders as JSON, see {@link RecorderMetricsRegistry}
  *
  * @author Denis V. Kirpichenkov
  */
-@WebServlet(urlPatterns = { "/jsflight/recorder/status" })
+@WebServlet(urlPatterns = { "/jsflight/recorder/status", RecorderStatusServlet.METRICS_PATH })
 public class RecorderStatusServlet extends HttpServlet
 {
+    static final String METRICS_PATH = "/jsflight/recorder/metrics";
     private static final long serialVersionUID = 1L;
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
     {
+        if (METRICS_PATH.equals(req.getServletPath()))
+        {
+            resp.setContentType("application/json;charset=UTF-8");
+            resp.setHeader("Cache-Control", "no-cache");
+            try (OutputStream out = resp.getOutputStream())
+            {
+                out.write(RecorderMetricsRegistry.toJson().getBytes(StandardCharsets.UTF_8));
+            }
+            return;
+        }
         ClassLoader classloader = Thread.currentThread().getContextClassLoader();
         try (InputStream is = classloader.getResourceAsStream("status.html"))
         {
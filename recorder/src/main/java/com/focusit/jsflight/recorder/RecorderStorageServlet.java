@@ -7,12 +7,20 @@ import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.io.StringWriter;
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
 
 /**
  * Servlet to process tracked data from a browser.
  * It's logic can be overrided by {@link RecordingProcessor}
+ * <p>
+ * Accepts either a form with a url encoded JSON array of events in 'data' field or the JSON array itself with
+ * application/json content type. The latter is streamed to the processor without being read in memory.
+ * Both may be gzipped, with or without Content-Encoding: gzip. A gzipped body inflated beyond
+ * {@link #setMaxInflatedSize(long)} is rejected with 413
  *
  * @author Denis V. Kirpichenkov
  */
@@ -20,15 +28,29 @@ import java.io.StringWriter;
 public class RecorderStorageServlet extends HttpServlet
 {
 
+    public static final long DEFAULT_MAX_INFLATED_SIZE = 32 * 1024 * 1024;
+
     private static final long serialVersionUID = 1L;
 
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final int BUFFER_SIZE = 8192;
+
     private static volatile RecordingProcessor processor = new ExampleRecordingProcessor();
+    private static volatile long maxInflatedSize = DEFAULT_MAX_INFLATED_SIZE;
 
     public static void setProcessor(RecordingProcessor processor)
     {
         RecorderStorageServlet.processor = processor;
     }
 
+    /**
+     * @param bytes max size of a gzipped body after inflating
+     */
+    public static void setMaxInflatedSize(long bytes)
+    {
+        RecorderStorageServlet.maxInflatedSize = bytes;
+    }
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
     {
@@ -40,8 +62,42 @@ public class RecorderStorageServlet extends HttpServlet
             return;
         }
 
+        try
+        {
+            process(req, resp, recProcess);
+        }
+        catch (ZipException ex)
+        {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        }
+        catch (BodyTooLargeException ex)
+        {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        }
+        catch (UncheckedIOException ex)
+        {
+            // streaming processors wrap errors of the body
+            if (!(ex.getCause() instanceof BodyTooLargeException))
+            {
+                throw ex;
+            }
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        }
+    }
+
+    private static void process(HttpServletRequest req, HttpServletResponse resp, RecordingProcessor recProcess)
+            throws IOException
+    {
+        InputStream body = getBody(req);
+        String contentType = req.getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith(JSON_CONTENT_TYPE))
+        {
+            processJson(req, resp, recProcess, body);
+            return;
+        }
+
         StringWriter writer = new StringWriter();
-        IOUtils.copy(req.getInputStream(), writer, "UTF-8");
+        IOUtils.copy(body, writer, "UTF-8");
         String data = writer.toString();
         try
         {
@@ -74,4 +130,106 @@ public class RecorderStorageServlet extends HttpServlet
             recProcess.processStoreEvent(req, resp, data);
         }
     }
+
+    /**
+     * Beacons can't set Content-Encoding, so gzipped bodies are recognized by their magic number as well
+     */
+    private static InputStream getBody(HttpServletRequest req) throws IOException
+    {
+        InputStream body = req.getInputStream();
+        if ("gzip".equalsIgnoreCase(req.getHeader("Content-Encoding")))
+        {
+            return new BoundedInputStream(new GZIPInputStream(body, BUFFER_SIZE), maxInflatedSize);
+        }
+        body = new BufferedInputStream(body, BUFFER_SIZE);
+        body.mark(2);
+        boolean gzipped = body.read() == (GZIPInputStream.GZIP_MAGIC & 0xff)
+                && body.read() == (GZIPInputStream.GZIP_MAGIC >>> 8);
+        body.reset();
+        return gzipped ? new BoundedInputStream(new GZIPInputStream(body, BUFFER_SIZE), maxInflatedSize) : body;
+    }
+
+    private static void processJson(HttpServletRequest req, HttpServletResponse resp, RecordingProcessor recProcess,
+            InputStream body) throws IOException
+    {
+        Charset charset = req.getCharacterEncoding() != null ? Charset.forName(req.getCharacterEncoding())
+                : StandardCharsets.UTF_8;
+        Reader data = new BufferedReader(new InputStreamReader(body, charset), BUFFER_SIZE);
+        if (req.getParameter("download") != null)
+        {
+            recProcess.processDownloadRequest(req, resp, IOUtils.toString(data));
+        }
+        else if (req.getParameter("stop") != null)
+        {
+            recProcess.processRecordStop(req, resp, IOUtils.toString(data));
+        }
+        else
+        {
+            recProcess.processStoreEvent(req, resp, data);
+        }
+    }
+
+    private static class BodyTooLargeException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException(long limit)
+        {
+            super("Inflated body exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Fails reading past the limit, so a small compressed body can't be inflated without bound
+     */
+    private static class BoundedInputStream extends FilterInputStream
+    {
+        private final long limit;
+        private long count = 0;
+
+        BoundedInputStream(InputStream in, long limit)
+        {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0)
+            {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = super.read(b, off, len);
+            if (read > 0)
+            {
+                count(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long bytes) throws BodyTooLargeException
+        {
+            count += bytes;
+            if (count > limit)
+            {
+                throw new BodyTooLargeException(limit);
+            }
+        }
+    }
 }
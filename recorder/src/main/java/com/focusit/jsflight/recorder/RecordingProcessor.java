@@ -1,8 +1,11 @@
 package com.focusit.jsflight.recorder;
 
+import org.apache.commons.io.IOUtils;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * Interface to define custom logic to serve tracked data from a browser
@@ -17,5 +20,18 @@ public interface RecordingProcessor
 
     void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, String data) throws IOException;
 
+    /**
+     * Stores events of a JSON request body without reading it in memory first.
+     * {@link EventBatchReader} streams the events one by one.
+     * By default reads the whole body and passes it to {@link #processStoreEvent(HttpServletRequest,
+     * HttpServletResponse, String)}
+     *
+     * @param data decoded request body, a JSON array of events
+     */
+    default void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) throws IOException
+    {
+        processStoreEvent(req, resp, IOUtils.toString(data));
+    }
+
     void processError(HttpServletRequest req, HttpServletResponse resp, String urlEncodedData) throws IOException;
 }
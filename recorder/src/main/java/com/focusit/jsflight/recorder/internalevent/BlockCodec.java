@@ -0,0 +1,25 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses single blocks of {@link BlockOutputStream}.
+ * Codec instances keep internal state and must not be shared between threads
+ */
+interface BlockCodec
+{
+    /**
+     * @return max size of compressed data for a block of given length
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * @return length of compressed data written to destination
+     */
+    int compress(byte[] source, int length, byte[] destination);
+
+    /**
+     * Decompresses exactly originalLength bytes to destination
+     */
+    void decompress(byte[] source, int length, byte[] destination, int originalLength) throws IOException;
+}
@@ -0,0 +1,57 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Codecs available for block compressed recordings, see {@link InternalEventRecorderBuilder#blockCompression}
+ */
+public enum BlockCompression
+{
+    /**
+     * Blocks are stored as is, but still framed and checksummed
+     */
+    NONE(0),
+    /**
+     * Deflate, best ratio
+     */
+    DEFLATE(1),
+    /**
+     * LZ4 block format. Much cheaper than deflate with a moderate ratio
+     */
+    LZ4(2);
+
+    private final byte id;
+
+    BlockCompression(int id)
+    {
+        this.id = (byte)id;
+    }
+
+    static BlockCompression byId(byte id)
+    {
+        for (BlockCompression compression : values())
+        {
+            if (compression.id == id)
+            {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    byte getId()
+    {
+        return id;
+    }
+
+    BlockCodec createCodec()
+    {
+        switch (this)
+        {
+        case DEFLATE:
+            return new DeflateBlockCodec();
+        case LZ4:
+            return new Lz4BlockCodec();
+        default:
+            return null;
+        }
+    }
+}
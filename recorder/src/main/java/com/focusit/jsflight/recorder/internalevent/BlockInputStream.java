@@ -0,0 +1,161 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a stream written by {@link BlockOutputStream}, verifying checksum of every block
+ */
+class BlockInputStream extends InputStream
+{
+    private final DataInputStream in;
+    private final Map<BlockCompression, BlockCodec> codecs = new EnumMap<>(BlockCompression.class);
+    private final CRC32 crc = new CRC32();
+    private byte[] block = new byte[0];
+    private byte[] stored = new byte[0];
+    private int position = 0;
+    private int limit = 0;
+    private boolean ended = false;
+
+    BlockInputStream(InputStream in) throws IOException
+    {
+        this(in, true);
+    }
+
+    /**
+     * @param readHeader false if the stream is positioned at a block header rather than at the start of the file
+     */
+    BlockInputStream(InputStream in, boolean readHeader) throws IOException
+    {
+        this.in = new DataInputStream(in);
+        if (!readHeader)
+        {
+            return;
+        }
+        byte[] magic = new byte[BlockOutputStream.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, BlockOutputStream.MAGIC))
+        {
+            throw new IOException("Not a block compressed recording");
+        }
+        byte version = this.in.readByte();
+        if (version != BlockOutputStream.VERSION)
+        {
+            throw new IOException("Unsupported block format version " + version);
+        }
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (position == limit && !readBlock())
+        {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+        {
+            return 0;
+        }
+        if (position == limit && !readBlock())
+        {
+            return -1;
+        }
+        int chunk = Math.min(len, limit - position);
+        System.arraycopy(block, position, b, off, chunk);
+        position += chunk;
+        return chunk;
+    }
+
+    @Override
+    public int available()
+    {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    /**
+     * Skips the rest of the current block and reads the next one
+     *
+     * @return false if there are no more blocks
+     */
+    boolean nextBlock() throws IOException
+    {
+        position = limit;
+        return readBlock();
+    }
+
+    private boolean readBlock() throws IOException
+    {
+        if (ended)
+        {
+            return false;
+        }
+        int codecId = in.read();
+        if (codecId < 0 || (byte)codecId == BlockOutputStream.END_OF_BLOCKS)
+        {
+            ended = true;
+            return false;
+        }
+        try
+        {
+            int originalLength = in.readInt();
+            int storedLength = in.readInt();
+            int checksum = in.readInt();
+            BlockCompression compression = BlockCompression.byId((byte)codecId);
+            if (compression == null || originalLength < 0 || storedLength < 0)
+            {
+                throw new IOException("Corrupted block header");
+            }
+            if (block.length < originalLength)
+            {
+                block = new byte[originalLength];
+            }
+            if (compression == BlockCompression.NONE)
+            {
+                in.readFully(block, 0, originalLength);
+            }
+            else
+            {
+                if (stored.length < storedLength)
+                {
+                    stored = new byte[storedLength];
+                }
+                in.readFully(stored, 0, storedLength);
+                codecs.computeIfAbsent(compression, BlockCompression::createCodec).decompress(stored, storedLength,
+                        block, originalLength);
+            }
+            crc.reset();
+            crc.update(block, 0, originalLength);
+            if ((int)crc.getValue() != checksum)
+            {
+                throw new IOException("Block checksum mismatch");
+            }
+            position = 0;
+            limit = originalLength;
+            return true;
+        }
+        catch (EOFException e)
+        {
+            EOFException truncated = new EOFException("Block is truncated");
+            truncated.initCause(e);
+            throw truncated;
+        }
+    }
+}
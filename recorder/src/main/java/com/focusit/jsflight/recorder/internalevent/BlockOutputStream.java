@@ -0,0 +1,262 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Buffers written bytes into blocks and writes every block compressed independently of others.
+ * <p>
+ * Stream starts with {@link #MAGIC} and format version byte. Every block is framed as
+ * <pre>
+ * codec id (1 byte), original length (int), stored length (int), CRC32 of original data (int), stored data
+ * </pre>
+ * A block that doesn't get smaller is stored as is with {@link BlockCompression#NONE} codec id.
+ * A partial block is written on {@link #flush()} only once its first byte is older than the max flush delay,
+ * so frequent flushes of a few records don't cut the data into small, badly compressed blocks.
+ * Until then flushed data stays in memory.
+ * {@link #finish()} terminates the sequence of blocks with {@link #END_OF_BLOCKS} byte,
+ * so anything written to the underlying stream afterwards is not mistaken for a block
+ */
+class BlockOutputStream extends OutputStream
+{
+    static final byte[] MAGIC = { 'J', 'S', 'F', 'B' };
+    static final byte VERSION = 1;
+    static final int BLOCK_HEADER_LENGTH = 13;
+    static final byte END_OF_BLOCKS = (byte)0xFF;
+
+    private final OutputStream out;
+    private final BlockCompression compression;
+    private final BlockCodec codec;
+    private final byte[] block;
+    private final byte[] compressed;
+    private final byte[] header = new byte[BLOCK_HEADER_LENGTH];
+    private final CRC32 crc = new CRC32();
+    private final long maxFlushDelayNs;
+    private int count = 0;
+    private long blockOpenedNs;
+    private long written = 0;
+    private long uncompressed = 0;
+    private long[] blockOffsets = new long[16];
+    private long[] blockStarts = new long[16];
+    private int blocks = 0;
+    private boolean finished = false;
+
+    /**
+     * @param maxFlushDelayNs age of a partial block after which {@link #flush()} writes it
+     */
+    BlockOutputStream(OutputStream out, BlockCompression compression, int blockSize, long maxFlushDelayNs)
+            throws IOException
+    {
+        this.out = out;
+        this.maxFlushDelayNs = maxFlushDelayNs;
+        this.compression = compression;
+        this.codec = compression.createCodec();
+        this.block = new byte[blockSize];
+        this.compressed = codec != null ? new byte[codec.maxCompressedLength(blockSize)] : null;
+        out.write(MAGIC);
+        out.write(VERSION);
+        written = MAGIC.length + 1;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (count == block.length)
+        {
+            writeBlock();
+        }
+        if (count == 0)
+        {
+            blockOpenedNs = System.nanoTime();
+        }
+        block[count++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            if (count == block.length)
+            {
+                writeBlock();
+            }
+            if (count == 0)
+            {
+                blockOpenedNs = System.nanoTime();
+            }
+            int chunk = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        if (isOpenBlockDue())
+        {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the partial block whatever its age and flushes the underlying stream
+     */
+    void flushBlock() throws IOException
+    {
+        if (count > 0)
+        {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * @return whether there are bytes not written as a block yet
+     */
+    boolean hasOpenBlock()
+    {
+        return count > 0;
+    }
+
+    /**
+     * @return whether the partial block is old enough to be written by {@link #flush()}
+     */
+    boolean isOpenBlockDue()
+    {
+        return count > 0 && System.nanoTime() - blockOpenedNs >= maxFlushDelayNs;
+    }
+
+    /**
+     * Writes the last block and the end marker without closing the underlying stream
+     */
+    void finish() throws IOException
+    {
+        if (finished)
+        {
+            return;
+        }
+        if (count > 0)
+        {
+            writeBlock();
+        }
+        out.write(END_OF_BLOCKS);
+        out.flush();
+        written++;
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            finish();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Locates a byte of uncompressed data in the underlying stream. Only data already written as blocks can be located
+     *
+     * @return offset of the block header in the underlying stream and offset of the byte within uncompressed block
+     */
+    long[] locate(long position)
+    {
+        int low = 0;
+        int high = blocks - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (blockStarts[middle] <= position)
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        if (blocks == 0 || position < blockStarts[low] || position >= uncompressed)
+        {
+            throw new IllegalArgumentException("Position is not written yet: " + position);
+        }
+        return new long[] { blockOffsets[low], position - blockStarts[low] };
+    }
+
+    private void writeBlock() throws IOException
+    {
+        crc.reset();
+        crc.update(block, 0, count);
+
+        byte codecId = BlockCompression.NONE.getId();
+        byte[] data = block;
+        int length = count;
+        if (codec != null)
+        {
+            int compressedLength = codec.compress(block, count, compressed);
+            if (compressedLength < count)
+            {
+                codecId = compression.getId();
+                data = compressed;
+                length = compressedLength;
+            }
+        }
+
+        header[0] = codecId;
+        writeInt(header, 1, count);
+        writeInt(header, 5, length);
+        writeInt(header, 9, (int)crc.getValue());
+        out.write(header);
+        out.write(data, 0, length);
+        addBlock();
+        written += BLOCK_HEADER_LENGTH + length;
+        uncompressed += count;
+        count = 0;
+    }
+
+    /**
+     * Writes a block stored as is, without the stream header. Used to rewrite the last block of a recovered file
+     */
+    static void writeStoredBlock(OutputStream out, byte[] data, int length) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        byte[] header = new byte[BLOCK_HEADER_LENGTH];
+        header[0] = BlockCompression.NONE.getId();
+        writeInt(header, 1, length);
+        writeInt(header, 5, length);
+        writeInt(header, 9, (int)crc.getValue());
+        out.write(header);
+        out.write(data, 0, length);
+    }
+
+    private void addBlock()
+    {
+        if (blocks == blockOffsets.length)
+        {
+            blockOffsets = Arrays.copyOf(blockOffsets, blocks * 2);
+            blockStarts = Arrays.copyOf(blockStarts, blocks * 2);
+        }
+        blockOffsets[blocks] = written;
+        blockStarts[blocks] = uncompressed;
+        blocks++;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value)
+    {
+        buffer[offset] = (byte)(value >>> 24);
+        buffer[offset + 1] = (byte)(value >>> 16);
+        buffer[offset + 2] = (byte)(value >>> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+}
@@ -0,0 +1,66 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link RecordQueue} backed by {@link ArrayBlockingQueue}. Every producer and the consumer share one lock
+ */
+class BlockingRecordQueue<E> implements RecordQueue<E>
+{
+    private final ArrayBlockingQueue<E> queue;
+
+    BlockingRecordQueue(int capacity)
+    {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public boolean offer(E element)
+    {
+        return queue.offer(element);
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException
+    {
+        queue.put(element);
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return queue.offer(element, timeout, unit);
+    }
+
+    @Override
+    public E poll()
+    {
+        return queue.poll();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements)
+    {
+        return queue.drainTo(collection, maxElements);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int size()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public int capacity()
+    {
+        return queue.size() + queue.remainingCapacity();
+    }
+}
@@ -0,0 +1,85 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Coarse {@link TimeSource}. A clock thread publishes system clocks with a fixed interval
+ */
+class CachedTimeSource implements TimeSource
+{
+    private final ClockThread clockThread = new ClockThread();
+    private volatile long intervalMs;
+    private volatile long nanoTime = System.nanoTime();
+    private volatile long epochMillis = System.currentTimeMillis();
+    private volatile boolean running = true;
+
+    CachedTimeSource(long intervalMs)
+    {
+        this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return nanoTime;
+    }
+
+    @Override
+    public long toEpochMillis(long nanoTime)
+    {
+        return epochMillis;
+    }
+
+    @Override
+    public void start()
+    {
+        clockThread.start();
+    }
+
+    @Override
+    public void stop() throws InterruptedException
+    {
+        running = false;
+        clockThread.interrupt();
+        clockThread.join(2000);
+    }
+
+    void setInterval(long intervalMs)
+    {
+        this.intervalMs = intervalMs;
+    }
+
+    private class ClockThread extends Thread
+    {
+        ClockThread()
+        {
+            super("internal-event-clock");
+            setDaemon(true);
+            setPriority(MAX_PRIORITY);
+        }
+
+        @Override
+        public void run()
+        {
+            while (running && !isInterrupted())
+            {
+                epochMillis = System.currentTimeMillis();
+                nanoTime = System.nanoTime();
+                try
+                {
+                    long interval = intervalMs;
+                    if (interval <= 0)
+                    {
+                        Thread.yield();
+                    }
+                    else
+                    {
+                        Thread.sleep(interval);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+            }
+        }
+    }
+}
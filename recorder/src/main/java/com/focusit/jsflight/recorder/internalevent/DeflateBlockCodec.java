@@ -0,0 +1,64 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link BlockCodec} producing raw deflate blocks
+ */
+class DeflateBlockCodec implements BlockCodec
+{
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final Inflater inflater = new Inflater(true);
+
+    @Override
+    public int maxCompressedLength(int length)
+    {
+        // deflate worst case: stored blocks of 5 bytes header per 16k plus some slack
+        return length + (length >> 12) + (length >> 14) + 64;
+    }
+
+    @Override
+    public int compress(byte[] source, int length, byte[] destination)
+    {
+        deflater.reset();
+        deflater.setInput(source, 0, length);
+        deflater.finish();
+        int compressed = 0;
+        while (!deflater.finished() && compressed < destination.length)
+        {
+            compressed += deflater.deflate(destination, compressed, destination.length - compressed);
+        }
+        return compressed;
+    }
+
+    @Override
+    public void decompress(byte[] source, int length, byte[] destination, int originalLength) throws IOException
+    {
+        inflater.reset();
+        inflater.setInput(source, 0, length);
+        try
+        {
+            int decompressed = 0;
+            while (decompressed < originalLength && !inflater.finished())
+            {
+                int count = inflater.inflate(destination, decompressed, originalLength - decompressed);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                decompressed += count;
+            }
+            if (decompressed != originalLength)
+            {
+                throw new IOException("Deflate block is truncated: " + decompressed + " of " + originalLength);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupted deflate block", e);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * {@link TimeSource} reading system clocks on every call
+ */
+class DirectTimeSource implements TimeSource
+{
+    @Override
+    public long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long toEpochMillis(long nanoTime)
+    {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,64 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Unbounded segment written through {@link FileOutputStream}. Never becomes full
+ */
+class FileSegmentOutputStream extends SegmentOutputStream
+{
+    private final FileOutputStream out;
+    private long position = 0;
+
+    FileSegmentOutputStream(File file) throws FileNotFoundException
+    {
+        this.out = new FileOutputStream(file);
+    }
+
+    @Override
+    boolean isFull()
+    {
+        return false;
+    }
+
+    @Override
+    long position()
+    {
+        return position;
+    }
+
+    @Override
+    void sync() throws IOException
+    {
+        out.getChannel().force(false);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        out.write(b);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        out.write(b, off, len);
+        position += len;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TimeSource} with precise monotonic time and epoch time derived from it.
+ * Offset between epoch and monotonic clocks is recalibrated lazily, by the first caller after the interval has passed
+ */
+class HybridTimeSource implements TimeSource
+{
+    private final long recalibrationIntervalNs;
+    private volatile Calibration calibration;
+
+    HybridTimeSource(long recalibrationIntervalMs)
+    {
+        this.recalibrationIntervalNs = TimeUnit.MILLISECONDS.toNanos(recalibrationIntervalMs);
+        this.calibration = new Calibration();
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long toEpochMillis(long nanoTime)
+    {
+        Calibration current = calibration;
+        if (nanoTime - current.calibratedAtNs > recalibrationIntervalNs)
+        {
+            current = new Calibration();
+            calibration = current;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime + current.offsetNs);
+    }
+
+    private static class Calibration
+    {
+        private final long calibratedAtNs;
+        private final long offsetNs;
+
+        private Calibration()
+        {
+            long epochMillis = System.currentTimeMillis();
+            calibratedAtNs = System.nanoTime();
+            offsetNs = TimeUnit.MILLISECONDS.toNanos(epochMillis) - calibratedAtNs;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Queries a recording file by time range or tag.
+ * Only runs of records the {@link RecordingIndex} points to are decoded.
+ * Files without an index footer are scanned from the start
+ */
+public class IndexedEventReader
+{
+    private final File file;
+    private final RecordingIndex index;
+
+    public IndexedEventReader(File file) throws IOException
+    {
+        this.file = file;
+        this.index = RecordingIndex.read(file);
+    }
+
+    public boolean isIndexed()
+    {
+        return index != null;
+    }
+
+    /**
+     * @return records with {@link InternalEventRecorder.InternalEventRecord#timestampEpoch} in the range,
+     * both bounds are inclusive
+     */
+    public List<InternalEventRecorder.InternalEventRecord> readTimeRange(long fromEpoch, long toEpoch)
+            throws IOException
+    {
+        return read(entry -> entry.overlaps(fromEpoch, toEpoch),
+                record -> record.timestampEpoch >= fromEpoch && record.timestampEpoch <= toEpoch);
+    }
+
+    public List<InternalEventRecorder.InternalEventRecord> readTag(String tag) throws IOException
+    {
+        int tagId = index != null ? index.getTagId(tag) : -1;
+        if (index != null && tagId < 0)
+        {
+            return new ArrayList<>();
+        }
+        return read(entry -> entry.hasTag(tagId), record -> tag.equals(record.tag));
+    }
+
+    private List<InternalEventRecorder.InternalEventRecord> read(Predicate<RecordingIndex.Entry> entryFilter,
+            Predicate<InternalEventRecorder.InternalEventRecord> recordFilter) throws IOException
+    {
+        List<InternalEventRecorder.InternalEventRecord> result = new ArrayList<>();
+        if (index == null)
+        {
+            try (InternalEventReader reader = InternalEventReader.open(file))
+            {
+                readRecords(reader, Long.MAX_VALUE, recordFilter, result);
+            }
+            return result;
+        }
+
+        List<RecordingIndex.Entry> entries = index.getEntries();
+        int i = 0;
+        while (i < entries.size())
+        {
+            if (!entryFilter.test(entries.get(i)))
+            {
+                i++;
+                continue;
+            }
+            // adjacent matching runs are read with a single reader
+            RecordingIndex.Entry first = entries.get(i);
+            long count = 0;
+            while (i < entries.size() && entryFilter.test(entries.get(i)))
+            {
+                count += entries.get(i).count;
+                i++;
+            }
+            try (InternalEventReader reader = index.openAt(file, first))
+            {
+                readRecords(reader, count, recordFilter, result);
+            }
+        }
+        return result;
+    }
+
+    private static void readRecords(InternalEventReader reader, long count,
+            Predicate<InternalEventRecorder.InternalEventRecord> recordFilter,
+            List<InternalEventRecorder.InternalEventRecord> result)
+    {
+        InternalEventRecorder.InternalEventRecord record;
+        for (long i = 0; i < count && (record = reader.read()) != null; i++)
+        {
+            if (recordFilter.test(record))
+            {
+                result.add(record);
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.FastInput;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecordInformation;
+
+/**
+ * Reads records written by {@link InternalEventRecorder}, see {@link RecordingFormat} for the file layout.
+ * Files of the original format, bare Kryo records with a char array tag and no format entry, are read as well
+ */
+public class InternalEventReader implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(InternalEventReader.class);
+
+    private Kryo kryo = new Kryo();
+    private final FastInput input;
+    private final List<String> tags = new ArrayList<>();
+    private final FastInput frameInput = new FastInput();
+    private final CRC32 crc = new CRC32();
+    private byte[] frameBuffer = new byte[4096];
+    private boolean framed = false;
+    private boolean ended = false;
+    private boolean truncated = false;
+    private boolean formatChecked = false;
+    private boolean legacy = false;
+
+    public InternalEventReader(InputStream stream)
+    {
+        this.input = new FastInput(stream);
+    }
+
+    /**
+     * Reader of a stream entered in the middle, so tags and kryo setup are taken from the file's
+     * {@link RecordingIndex}
+     */
+    InternalEventReader(InputStream stream, List<String> tags, Kryo kryo, int version)
+    {
+        this(stream);
+        this.tags.addAll(tags);
+        this.kryo = kryo;
+        this.framed = version >= RecordingFormat.FRAMED_VERSION;
+        this.formatChecked = true;
+    }
+
+    /**
+     * Opens a recording file. Gzipped and block compressed files are detected automatically
+     */
+    public static InternalEventReader open(File file) throws IOException
+    {
+        InputStream stream = new BufferedInputStream(new FileInputStream(file));
+        byte[] magic = new byte[BlockOutputStream.MAGIC.length];
+        stream.mark(magic.length);
+        int read = IOUtils.read(stream, magic);
+        stream.reset();
+        if (read == magic.length && Arrays.equals(magic, BlockOutputStream.MAGIC))
+        {
+            stream = new BlockInputStream(stream);
+        }
+        else if (read >= 2 && ((magic[0] & 0xFF) | ((magic[1] & 0xFF) << 8)) == GZIPInputStream.GZIP_MAGIC)
+        {
+            stream = new GZIPInputStream(stream);
+        }
+        return new InternalEventReader(stream);
+    }
+
+    /**
+     * Stream ending in the middle of a frame is the tail left by a crash: records before it are returned,
+     * the cut frame is skipped and {@link #isTruncated()} is set
+     *
+     * @return next record with {@link InternalEventRecorder.InternalEventRecord#tag} resolved,
+     * or null if there are no more records
+     * @throws KryoException if an entry is corrupted
+     */
+    public InternalEventRecorder.InternalEventRecord read()
+    {
+        if (!formatChecked)
+        {
+            checkFormat();
+        }
+        if (legacy)
+        {
+            return readLegacy();
+        }
+        while (!ended && !input.eof())
+        {
+            long position = input.total();
+            byte entryType = input.readByte();
+            FastInput entry = input;
+            if (framed && (entryType == RecordingFormat.TAG_ENTRY || entryType == RecordingFormat.RECORD_ENTRY))
+            {
+                entry = readFrame(position);
+                if (entry == null)
+                {
+                    break;
+                }
+            }
+            switch (entryType)
+            {
+            case RecordingFormat.FORMAT_ENTRY:
+                int version = RecordingFormat.readVersion(input);
+                kryo = RecordingFormat.newKryo(RecordingFormat.readRegistry(input));
+                framed = version >= RecordingFormat.FRAMED_VERSION;
+                break;
+            case RecordingFormat.TAG_ENTRY:
+                readTag(entry);
+                break;
+            case RecordingFormat.RECORD_ENTRY:
+                InternalEventRecorder.InternalEventRecord record = kryo.readObject(entry,
+                        InternalEventRecorder.InternalEventRecord.class);
+                record.tag = getTag(record.tagId);
+                return record;
+            case RecordingFormat.END_ENTRY:
+                ended = true;
+                break;
+            case 0:
+                if (!framed)
+                {
+                    throw new KryoException("Unknown entry type 0 at " + position);
+                }
+                // never written part of a preallocated segment that wasn't truncated on close
+                ended = true;
+                truncated = true;
+                break;
+            default:
+                throw new KryoException("Unknown entry type " + entryType + " at " + position);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the stream ended without a proper end of records, as a file being written
+     * when the process crashed does
+     */
+    public boolean isTruncated()
+    {
+        return truncated;
+    }
+
+    /**
+     * @return tag name by id or null if the tag is not defined yet
+     */
+    public String getTag(int tagId)
+    {
+        return tagId < tags.size() ? tags.get(tagId) : null;
+    }
+
+    @Override
+    public void close()
+    {
+        input.close();
+    }
+
+    /**
+     * @return input positioned at the payload of a verified frame, or null if the stream ends inside the frame
+     */
+    private FastInput readFrame(long position)
+    {
+        int length;
+        int expectedCrc;
+        try
+        {
+            length = input.readInt();
+            expectedCrc = input.readInt();
+            if (length < 0 || length > RecordingFormat.MAX_FRAME_LENGTH)
+            {
+                throw new KryoException("Corrupted frame length " + length + " at " + position);
+            }
+            if (frameBuffer.length < length)
+            {
+                frameBuffer = new byte[Math.max(length, frameBuffer.length * 2)];
+            }
+            input.readBytes(frameBuffer, 0, length);
+        }
+        catch (KryoException e)
+        {
+            // buffer underflow has no cause, failed read of the underlying stream has one
+            if (e.getCause() != null && !(e.getCause() instanceof EOFException))
+            {
+                throw e;
+            }
+            LOG.warn("Recording ends with a partially written entry at {}", position);
+            ended = true;
+            truncated = true;
+            return null;
+        }
+        crc.reset();
+        crc.update(frameBuffer, 0, length);
+        if ((int)crc.getValue() != expectedCrc)
+        {
+            throw new KryoException("Checksum mismatch of entry at " + position);
+        }
+        frameInput.setBuffer(frameBuffer, 0, length);
+        return frameInput;
+    }
+
+    /**
+     * Every file written by {@link InternalEventRecorder} starts with {@link RecordingFormat#FORMAT_ENTRY}
+     * unless it is of the original format
+     */
+    private void checkFormat()
+    {
+        formatChecked = true;
+        if (input.eof())
+        {
+            return;
+        }
+        byte first = input.readByte();
+        input.setPosition(input.position() - 1);
+        if (first != RecordingFormat.FORMAT_ENTRY)
+        {
+            legacy = true;
+            kryo = newLegacyKryo();
+        }
+    }
+
+    private InternalEventRecorder.InternalEventRecord readLegacy()
+    {
+        if (input.eof())
+        {
+            return null;
+        }
+        LegacyRecord legacyRecord = kryo.readObject(input, LegacyRecord.class);
+        InternalEventRecorder.InternalEventRecord record = new InternalEventRecorder.InternalEventRecord();
+        record.id = legacyRecord.id;
+        record.timestampNs = legacyRecord.timestampNs;
+        record.timestampEpoch = legacyRecord.timestampEpoch;
+        record.tagId = -1;
+        record.tag = legacyRecord.tag == null ? null : new String(legacyRecord.tag).trim();
+        record.data = legacyRecord.data;
+        return record;
+    }
+
+    /**
+     * Original files were written by a kryo without registrations, with fewer fields of {@link HttpRecordInformation}
+     */
+    private static Kryo newLegacyKryo()
+    {
+        Kryo legacyKryo = new Kryo();
+        FieldSerializer<HttpRecordInformation> serializer = new FieldSerializer<>(legacyKryo,
+                HttpRecordInformation.class);
+        for (FieldSerializer.CachedField field : serializer.getFields())
+        {
+            String name = field.getField().getName();
+            if (!name.equals("params") && !name.equals("payload") && !name.equals("additional"))
+            {
+                serializer.removeField(name);
+            }
+        }
+        legacyKryo.register(HttpRecordInformation.class, serializer);
+        return legacyKryo;
+    }
+
+    private void readTag(FastInput entry)
+    {
+        int id = entry.readVarInt(true);
+        String name = entry.readString();
+        while (tags.size() <= id)
+        {
+            tags.add(null);
+        }
+        tags.set(id, name);
+    }
+
+    /**
+     * Record of the original format. Unused tag chars are zeros
+     */
+    private static class LegacyRecord
+    {
+        long id;
+        long timestampNs;
+        long timestampEpoch;
+        char[] tag;
+        Object data;
+    }
+}
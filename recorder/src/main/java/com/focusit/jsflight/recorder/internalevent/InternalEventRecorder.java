@@ -1,17 +1,29 @@
 package com.focusit.jsflight.recorder.internalevent;
 
 import java.io.*;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.FastOutput;
 
+import com.focusit.jsflight.recorder.internalevent.monitoring.RecorderMetrics;
+import com.focusit.jsflight.recorder.internalevent.monitoring.RecorderMetricsRegistry;
+
 /**
  * Recorder for special server event that must be recorded to get correct overall recording.
  * For example if you record only user interaction and miss same important server state changes,
@@ -22,43 +34,138 @@ import com.esotericsoftware.kryo.io.FastOutput;
 public class InternalEventRecorder
 {
     private static final Logger LOG = LoggerFactory.getLogger(InternalEventRecorder.class);
-    private final int maxElementsBeforeFlush;
-    private final boolean storeInGzip;
-    private final InternalEventRecorderBuilder.FileStrategy newFileStrategy;
-    private ArrayBlockingQueue<InternalEventRecord> records;
+    private static final int MAX_IDLE_FRAME_BUFFER = 1024 * 1024;
+    private final OverflowHandler overflowHandler;
+    private final RecordPool pool;
+    private final TagRegistry tags = new TagRegistry();
     private AtomicLong lastId = new AtomicLong(-1);
-    private AtomicLong timestampNs = new AtomicLong(0);
     private AtomicBoolean recording = new AtomicBoolean(false);
-    private StorageThread storageThread;
+    private final StorageThread[] storageThreads;
+    /**
+     * Storage threads of every tag route, route 0 takes records with tags that aren't routed
+     */
+    private final StorageThread[][] routes;
+    private final Map<String, Integer> routeByTag;
     private AtomicBoolean shuttingDown = new AtomicBoolean(false);
-    private AtomicBoolean openNewFile = new AtomicBoolean(false);
-    private WallClock wallClock = new WallClock();
+    private final TimeSource timeSource;
+    private final RecorderMetrics metrics;
 
-    InternalEventRecorder(int maxElementsBeforeFlush, int maxQueueSize, String storagePrefix, boolean storeInGzip,
-            InternalEventRecorderBuilder.FileStrategy newFileStrategy)
+    InternalEventRecorder(String name, List<StorageShard> shards, Map<String, Integer> routeByTag, RecordPool pool,
+            OverflowHandler overflowHandler, TimeSource timeSource)
     {
-        this.maxElementsBeforeFlush = maxElementsBeforeFlush;
-        this.records = new ArrayBlockingQueue<>(maxQueueSize);
-        this.storeInGzip = storeInGzip;
-        this.storageThread = new StorageThread(storagePrefix);
-        this.newFileStrategy = newFileStrategy;
-        wallClock.start();
-        storageThread.start();
+        this.pool = pool;
+        this.overflowHandler = overflowHandler;
+        this.routeByTag = routeByTag;
+        this.storageThreads = new StorageThread[shards.size()];
+        for (int i = 0; i < storageThreads.length; i++)
+        {
+            // the only one storage thread moves spilled records to the recording
+            storageThreads[i] = new StorageThread(shards.get(i), i == 0);
+        }
+        this.routes = new StorageThread[shards.get(shards.size() - 1).route + 1][];
+        for (int route = 0; route < routes.length; route++)
+        {
+            int number = route;
+            routes[route] = Arrays.stream(storageThreads).filter(thread -> thread.route == number)
+                    .toArray(StorageThread[]::new);
+        }
+        this.timeSource = timeSource;
+        this.metrics = new RecorderMetrics(name, this::getQueueSize, this::getQueueCapacity, this::getDroppedRecords,
+                this::getSpilledRecords);
+        RecorderMetricsRegistry.register(metrics);
+        timeSource.start();
+        for (StorageThread storageThread : storageThreads)
+        {
+            storageThread.start();
+        }
     }
 
     public boolean hasPendingStores()
     {
-        return !records.isEmpty();
+        for (StorageThread storageThread : storageThreads)
+        {
+            if (!storageThread.records.isEmpty())
+            {
+                return true;
+            }
+        }
+        return hasSpilledRecords();
+    }
+
+    /**
+     * @return share of queue slots taken by records waiting to be stored, from 0 to 1
+     */
+    public double getQueueOccupancy()
+    {
+        long capacity = getQueueCapacity();
+        return capacity > 0 ? (double)getQueueSize() / capacity : 0;
+    }
+
+    /**
+     * @return number of records waiting to be stored in queues of all storage threads
+     */
+    public long getQueueSize()
+    {
+        long size = 0;
+        for (StorageThread storageThread : storageThreads)
+        {
+            size += storageThread.records.size();
+        }
+        return size;
+    }
+
+    public long getQueueCapacity()
+    {
+        long capacity = 0;
+        for (StorageThread storageThread : storageThreads)
+        {
+            capacity += storageThread.records.capacity();
+        }
+        return capacity;
+    }
+
+    public RecorderMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * @return number of records lost because the queue was full
+     */
+    public long getDroppedRecords()
+    {
+        return overflowHandler.getDropped();
+    }
+
+    /**
+     * @return number of records written to a spill file because the queue was full
+     */
+    public long getSpilledRecords()
+    {
+        return overflowHandler.getSpilled();
     }
 
     public long getWallTime()
     {
-        return timestampNs.get();
+        return timeSource.nanoTime();
     }
 
     public void openFileForWriting()
     {
-        storageThread.openFileForWriting();
+        for (StorageThread storageThread : storageThreads)
+        {
+            storageThread.openFileForWriting();
+        }
+    }
+
+    /**
+     * Registers a tag to push records with it by id
+     *
+     * @return tag id
+     */
+    public int registerTag(String tag)
+    {
+        return tags.register(tag);
     }
 
     public void push(String tag, Object data) throws UnsupportedEncodingException, InterruptedException
@@ -67,36 +174,141 @@ public class InternalEventRecorder
         {
             return;
         }
+        push(tags.register(tag), data);
+    }
+
+    /**
+     * Pushes a record with a tag registered by {@link #registerTag(String)}
+     */
+    public void push(int tagId, Object data) throws InterruptedException
+    {
+        if (!recording.get())
+        {
+            return;
+        }
+        if (!tags.isRegistered(tagId))
+        {
+            LOG.error("Record with unregistered tag id {} is skipped", tagId);
+            return;
+        }
+
+        long timestampNs = timeSource.nanoTime();
+        enqueue(tagId, data, timestampNs, timeSource.toEpochMillis(timestampNs), false);
+    }
+
+    /**
+     * Pushes a record received from another recorder, see {@link RecordingCollector}. Timestamps are kept.
+     * The record is never dropped or spilled, a full queue makes the caller wait whatever the overflow policy is
+     */
+    void pushReceived(String tag, Object data, long timestampNs, long timestampEpoch) throws InterruptedException
+    {
+        if (!recording.get())
+        {
+            return;
+        }
+        enqueue(tags.register(tag), data, timestampNs, timestampEpoch, true);
+    }
 
-        InternalEventRecord record = new InternalEventRecord();
+    /**
+     * Waits until records pushed so far are written and flushed, a partial compressed block included, and forced
+     * to the storage device unless fsync policy is {@link InternalEventRecorderBuilder.FsyncPolicy#NEVER}.
+     * Lets {@link RecordingCollector} acknowledge a batch only once it is stored
+     *
+     * @throws IOException if recording is stopped or the file can't be flushed before the records are stored
+     */
+    void awaitStored() throws IOException, InterruptedException
+    {
+        long[] tickets = new long[storageThreads.length];
+        for (int i = 0; i < storageThreads.length; i++)
+        {
+            tickets[i] = storageThreads[i].requestStore();
+        }
+        for (int i = 0; i < storageThreads.length; i++)
+        {
+            storageThreads[i].awaitStored(tickets[i]);
+        }
+    }
+
+    private void enqueue(int tagId, Object data, long timestampNs, long timestampEpoch, boolean blocking)
+            throws InterruptedException
+    {
+        InternalEventRecord record = pool.acquire();
         record.id = lastId.incrementAndGet();
+        record.tagId = tagId;
+        record.tag = tags.getName(tagId);
+        record.data = data;
+        record.timestampNs = timestampNs;
+        record.timestampEpoch = timestampEpoch;
+        StorageThread storageThread = selectStorageThread(record.tag);
+        long start = System.nanoTime();
+        if (blocking)
+        {
+            storageThread.records.put(record);
+        }
+        else
+        {
+            overflowHandler.enqueue(storageThread.records, record);
+        }
+        storageThread.signal();
+        metrics.onPush(System.nanoTime() - start);
+    }
 
-        String tagValue = tag.trim();
-        if (!tagValue.isEmpty())
+    /**
+     * Records of a pushing thread always go to the same shard of a route,
+     * so they are stored in the order they were pushed
+     */
+    private StorageThread selectStorageThread(String tag)
+    {
+        StorageThread[] threads = routes[0];
+        if (!routeByTag.isEmpty())
         {
-            tagValue.getChars(0, tagValue.length() > 64 ? 64 : tagValue.length(), record.tag, 0);
+            Integer route = routeByTag.get(tag);
+            if (route != null)
+            {
+                threads = routes[route];
+            }
         }
-        if (data != null)
+        if (threads.length == 1)
         {
-            record.data = data;
+            return threads[0];
         }
-        record.timestampNs = timestampNs.get();
-        record.timestampEpoch = System.currentTimeMillis();
-        records.put(record);
+        return threads[(int)(Thread.currentThread().getId() % threads.length)];
+    }
+
+    private boolean hasSpilledRecords()
+    {
+        return overflowHandler.getSpillFile() != null && overflowHandler.getSpillFile().hasPending();
     }
 
     public void shutdown() throws InterruptedException
     {
         stopRecording();
-        storageThread.flush();
         shuttingDown.set(true);
-        storageThread.join(2000);
-        wallClock.join(2000);
+        for (StorageThread storageThread : storageThreads)
+        {
+            LockSupport.unpark(storageThread);
+        }
+        for (StorageThread storageThread : storageThreads)
+        {
+            storageThread.join(2000);
+        }
+        for (StorageThread storageThread : storageThreads)
+        {
+            if (storageThread.retention != null)
+            {
+                storageThread.retention.shutdown();
+            }
+        }
+        timeSource.stop();
+        RecorderMetricsRegistry.unregister(metrics);
     }
 
     public void recordToNewFile()
     {
-        storageThread.openNewFile();
+        for (StorageThread storageThread : storageThreads)
+        {
+            storageThread.openNewFile();
+        }
     }
 
     public void startRecording()
@@ -109,38 +321,80 @@ public class InternalEventRecorder
         recording.set(false);
     }
 
+    /**
+     * Changes update interval of {@link TimeSources#cached(long)} time source. Has no effect on other time sources
+     */
     public void setWallClockInterval(long interval)
     {
-        this.wallClock.setNewInterval(interval);
+        if (timeSource instanceof CachedTimeSource)
+        {
+            ((CachedTimeSource)timeSource).setInterval(interval);
+        }
     }
 
     /**
-     * Internal event representation
+     * Internal event representation.
+     * Only tag id is stored, tag name is resolved by {@link InternalEventReader} from the file's tag dictionary
      */
     public static class InternalEventRecord
     {
         public long id;
         public long timestampNs;
         public long timestampEpoch;
-        public char tag[] = new char[64];
+        public int tagId;
+        public transient String tag;
         public Object data;
     }
 
     class StorageThread extends Thread
     {
+        private final long idleParkNs = TimeUnit.SECONDS.toNanos(1);
+        private final long storeCheckMs = 100;
+        private final int route;
+        private final StorageSettings settings;
+        private final RecordQueue<InternalEventRecord> records;
+        private final InternalEventRecorderBuilder.FileStrategy newFileStrategy;
+        private final SegmentRetention retention;
+        private final NetworkSink sink;
+        private final boolean replaysSpill;
+        private final AtomicBoolean openNewFile = new AtomicBoolean(false);
+        private final List<InternalEventRecord> batch;
+        private final BitSet writtenTags = new BitSet();
         private Kryo kryo;
+        private final RecordingIndexWriter index;
         private FastOutput output;
+        private final FastOutput frame = new FastOutput(4096, -1);
+        private final CRC32 crc = new CRC32();
+        private OutputStream stream;
+        private SegmentOutputStream segment;
+        private File segmentFile;
+        private long segmentOpenedEpoch;
+        private volatile boolean parked = false;
+        private int unflushed = 0;
+        private int unreportedRecords = 0;
+        private long unreportedBytes = 0;
+        private long firstUnflushedNs;
+        private long lastSyncNs;
+        private final AtomicLong storeRequests = new AtomicLong();
+        private volatile long storedRequests = 0;
+        private volatile long failedRequests = 0;
 
-        public StorageThread(String storagePrefix)
+        public StorageThread(StorageShard shard, boolean replaysSpill)
         {
-            super(storagePrefix);
+            super(shard.threadName);
             setPriority(NORM_PRIORITY);
-            kryo = new Kryo();
-        }
-
-        public void flush()
-        {
-            output.flush();
+            this.route = shard.route;
+            this.settings = shard.settings;
+            this.records = shard.queue;
+            this.newFileStrategy = shard.fileStrategy;
+            this.retention = shard.retention;
+            this.sink = settings.networkHost != null ? new NetworkSink(settings.networkHost, settings.networkPort,
+                    settings.networkNode, new File(newFileStrategy.getOutputPath() + ".netspool"), shard.threadName)
+                    : null;
+            this.replaysSpill = replaysSpill;
+            kryo = RecordingFormat.newKryo();
+            batch = new ArrayList<>(settings.maxBatchSize);
+            index = settings.indexInterval > 0 ? new RecordingIndexWriter(settings.indexInterval) : null;
         }
 
         public void openFileForWriting()
@@ -149,9 +403,25 @@ public class InternalEventRecorder
             {
                 File destinationFile = newFileStrategy.getNewFile();
                 LOG.info("{} storing events to: {}", newFileStrategy.toString(), destinationFile.getAbsolutePath());
-                FileOutputStream fos = new FileOutputStream(destinationFile);
-                OutputStream out = storeInGzip ? new GZIPOutputStream(fos, true) : fos;
-                output = new FastOutput(out);
+                segment = settings.outputStrategy.openSegment(destinationFile);
+                segmentFile = destinationFile;
+                segmentOpenedEpoch = System.currentTimeMillis();
+                stream = segment;
+                if (settings.blockCompression != null)
+                {
+                    stream = new BlockOutputStream(segment, settings.blockCompression, settings.blockSize,
+                            settings.maxFlushDelayNs);
+                }
+                else if (settings.storeInGzip)
+                {
+                    stream = new GZIPOutputStream(segment, true);
+                }
+                output = new FastOutput(stream);
+                RecordingFormat.writeHeader(output);
+                if (index != null)
+                {
+                    index.reset();
+                }
             }
             catch (IOException e)
             {
@@ -164,12 +434,61 @@ public class InternalEventRecorder
             openNewFile.set(true);
         }
 
+        /**
+         * Wakes storage thread up if it waits for records
+         */
+        void signal()
+        {
+            if (parked)
+            {
+                LockSupport.unpark(this);
+            }
+        }
+
+        /**
+         * @return ticket to wait for with {@link #awaitStored(long)}
+         */
+        long requestStore()
+        {
+            long ticket = storeRequests.incrementAndGet();
+            LockSupport.unpark(this);
+            return ticket;
+        }
+
+        /**
+         * Waits until records queued before the ticket was taken are stored
+         */
+        void awaitStored(long ticket) throws IOException, InterruptedException
+        {
+            synchronized (storeRequests)
+            {
+                while (storedRequests < ticket)
+                {
+                    if (failedRequests >= ticket)
+                    {
+                        throw new IOException("Can't store records to " + segmentFile);
+                    }
+                    if (!recording.get() || !isAlive())
+                    {
+                        throw new IOException("Recording is stopped before records are stored");
+                    }
+                    storeRequests.wait(storeCheckMs);
+                }
+            }
+        }
+
         private void reOpenFile()
         {
             try
             {
-                output.close();
+                closeFile();
+                if (retention != null)
+                {
+                    retention.onSegmentClosed(segmentFile);
+                }
+                writtenTags.clear();
                 openFileForWriting();
+                metrics.onRollover();
             }
             finally
             {
@@ -180,40 +499,41 @@ public class InternalEventRecorder
         @Override
         public void run()
         {
-            boolean needFlush = false;
-            int flushedObjects = 0;
-            while (isAlive() && !isInterrupted() && !shuttingDown.get())
+            if (sink != null)
+            {
+                sink.start();
+            }
+            while (!isInterrupted() && !shuttingDown.get())
             {
                 try
                 {
-                    if (recording.get())
+                    if (!recording.get())
+                    {
+                        park(idleParkNs);
+                        continue;
+                    }
+                    long requested = storeRequests.get();
+                    int written = writeBatch();
+                    if (replaysSpill && hasSpilledRecords())
                     {
-                        InternalEventRecord record;
-                        if (flushedObjects != maxElementsBeforeFlush && (record = records.poll()) != null)
-                        {
-                            if (shouldOpenNewFile() || newFileStrategy.isRecordToNewFile(record))
-                            {
-                                reOpenFile();
-                            }
-                            kryo.writeObject(output, record);
-                            needFlush = true;
-                            flushedObjects++;
-                            yield();
-                        }
-                        else
-                        {
-                            if (needFlush)
-                            {
-                                output.flush();
-                                flushedObjects = 0;
-                                needFlush = false;
-                            }
-                            sleep(100);
-                        }
+                        overflowHandler.getSpillFile().flush();
                     }
-                    else
+                    if (written == 0 && replaySpilledRecords())
                     {
-                        sleep(1000);
+                        continue;
+                    }
+                    if ((unflushed > 0 && (written < settings.maxBatchSize || isFlushDue())) || isOpenBlockDue())
+                    {
+                        flush();
+                    }
+                    // records queued before the request are written once a batch drains the queue
+                    if (hasStoreRequests(requested) && written < settings.maxBatchSize)
+                    {
+                        store(requested);
+                    }
+                    if (written == 0)
+                    {
+                        park(unflushed > 0 || hasOpenBlock() ? settings.maxFlushDelayNs : idleParkNs);
                     }
                 }
                 catch (Exception e)
@@ -221,52 +541,292 @@ public class InternalEventRecorder
                     // no Exception could break this thread. only Error
                 }
             }
+            storeRemainingRecords();
+            if (sink != null)
+            {
+                try
+                {
+                    sink.close();
+                }
+                catch (InterruptedException e)
+                {
+                    LOG.warn("Interrupted while delivering remaining records to the collector");
+                }
+            }
         }
 
-        private boolean shouldOpenNewFile()
+        private int writeBatch()
         {
-            return openNewFile.get();
+            batch.clear();
+            int count = records.drainTo(batch, settings.maxBatchSize);
+            if (count == 0)
+            {
+                return 0;
+            }
+            metrics.onDrain(count + records.size());
+            if (unflushed == 0)
+            {
+                firstUnflushedNs = System.nanoTime();
+            }
+            try
+            {
+                for (InternalEventRecord record : batch)
+                {
+                    writeRecord(record);
+                }
+            }
+            finally
+            {
+                for (InternalEventRecord record : batch)
+                {
+                    pool.release(record);
+                }
+                batch.clear();
+            }
+            return count;
         }
-    }
 
-    class WallClock extends Thread
-    {
-        //defaults to 10 milliseconds
-        private long interval = 10;
+        private boolean hasOpenBlock()
+        {
+            return stream instanceof BlockOutputStream && ((BlockOutputStream)stream).hasOpenBlock();
+        }
 
-        public WallClock()
+        private boolean isOpenBlockDue()
         {
-            super("internal-event-clock");
-            setPriority(MAX_PRIORITY);
+            return stream instanceof BlockOutputStream && ((BlockOutputStream)stream).isOpenBlockDue();
         }
 
-        public void setNewInterval(long interval)
+        private boolean isFlushDue()
         {
-            this.interval = interval;
+            return (settings.maxElementsBeforeFlush > 0 && unflushed >= settings.maxElementsBeforeFlush)
+                    || System.nanoTime() - firstUnflushedNs >= settings.maxFlushDelayNs;
         }
 
-        @Override
-        public void run()
+        private void flush()
         {
-            while (isAlive() && !isInterrupted() && !shuttingDown.get())
+            long start = System.nanoTime();
+            output.flush();
+            if (sink != null)
             {
-                timestampNs.set(System.nanoTime());
-                try
+                sink.flush();
+            }
+            unflushed = 0;
+            if (settings.fsyncPolicy == InternalEventRecorderBuilder.FsyncPolicy.PER_BATCH
+                    || (settings.fsyncPolicy == InternalEventRecorderBuilder.FsyncPolicy.INTERVAL
+                            && start - lastSyncNs >= settings.fsyncIntervalNs))
+            {
+                sync(start);
+            }
+            reportFlush(System.nanoTime() - start);
+        }
+
+        private boolean hasStoreRequests(long requested)
+        {
+            return requested > Math.max(storedRequests, failedRequests);
+        }
+
+        /**
+         * Completes store requests up to the given one, see {@link #awaitStored(long)}
+         */
+        private void store(long requests)
+        {
+            long start = System.nanoTime();
+            try
+            {
+                output.flush();
+                if (stream instanceof BlockOutputStream)
                 {
-                    if (interval <= 0)
-                    {
-                        Thread.yield();
-                    }
-                    else
-                    {
-                        Thread.sleep(interval);
-                    }
+                    ((BlockOutputStream)stream).flushBlock();
                 }
-                catch (InterruptedException e)
+                if (sink != null)
+                {
+                    sink.flush();
+                }
+                unflushed = 0;
+                if (settings.fsyncPolicy != InternalEventRecorderBuilder.FsyncPolicy.NEVER)
                 {
-                    break;
+                    segment.sync();
+                    lastSyncNs = start;
                 }
+                storedRequests = requests;
+            }
+            catch (IOException | KryoException e)
+            {
+                LOG.error("Can't store requested records", e);
+                failedRequests = requests;
+            }
+            reportFlush(System.nanoTime() - start);
+            synchronized (storeRequests)
+            {
+                storeRequests.notifyAll();
+            }
+        }
+
+        private void sync(long now)
+        {
+            try
+            {
+                segment.sync();
+            }
+            catch (IOException e)
+            {
+                LOG.error("Can't force recording file to the storage device", e);
             }
+            lastSyncNs = now;
+        }
+
+        private void reportFlush(long durationNs)
+        {
+            metrics.onFlush(unreportedRecords, unreportedBytes, durationNs);
+            unreportedRecords = 0;
+            unreportedBytes = 0;
+        }
+
+        private void park(long nanos)
+        {
+            parked = true;
+            try
+            {
+                if (records.isEmpty() && !(replaysSpill && hasSpilledRecords()) && !shuttingDown.get()
+                        && !hasStoreRequests(storeRequests.get()))
+                {
+                    LockSupport.parkNanos(this, nanos);
+                }
+            }
+            finally
+            {
+                parked = false;
+            }
+        }
+
+        private void storeRemainingRecords()
+        {
+            try
+            {
+                while (writeBatch() > 0 || replaySpilledRecords())
+                {
+                    // drain everything pushed before shutdown
+                }
+                if (output != null)
+                {
+                    closeFile();
+                }
+            }
+            catch (Exception e)
+            {
+                LOG.error("Can't store remaining records", e);
+            }
+        }
+
+        /**
+         * Terminates records of the current file and writes its index footer
+         */
+        private void closeFile()
+        {
+            try
+            {
+                long start = System.nanoTime();
+                output.writeByte(RecordingFormat.END_ENTRY);
+                output.flush();
+                reportFlush(System.nanoTime() - start);
+                if (stream instanceof BlockOutputStream)
+                {
+                    ((BlockOutputStream)stream).finish();
+                }
+                else if (stream instanceof GZIPOutputStream)
+                {
+                    ((GZIPOutputStream)stream).finish();
+                }
+                if (index != null)
+                {
+                    index.write(segment, stream, tags);
+                }
+                if (settings.fsyncPolicy != InternalEventRecorderBuilder.FsyncPolicy.NEVER)
+                {
+                    segment.sync();
+                }
+            }
+            catch (IOException e)
+            {
+                LOG.error("Can't finish recording file", e);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(segment);
+            }
+        }
+
+        private boolean shouldOpenNewFile()
+        {
+            return openNewFile.get();
+        }
+
+        private boolean isSegmentExpired(InternalEventRecord record)
+        {
+            return (settings.maxSegmentSize > 0 && segment.position() >= settings.maxSegmentSize)
+                    || (settings.maxSegmentAgeMs > 0
+                            && record.timestampEpoch - segmentOpenedEpoch >= settings.maxSegmentAgeMs);
+        }
+
+        private void writeRecord(InternalEventRecord record)
+        {
+            if (shouldOpenNewFile() || segment.isFull() || isSegmentExpired(record)
+                    || newFileStrategy.isRecordToNewFile(record))
+            {
+                reOpenFile();
+            }
+            if (!writtenTags.get(record.tagId))
+            {
+                frame.clear();
+                frame.writeVarInt(record.tagId, true);
+                frame.writeString(tags.getName(record.tagId));
+                RecordingFormat.writeFrame(output, RecordingFormat.TAG_ENTRY, frame, crc);
+                writtenTags.set(record.tagId);
+            }
+            long start = output.total();
+            if (index != null)
+            {
+                index.onRecord(record, start);
+            }
+            frame.clear();
+            kryo.writeObject(frame, record);
+            RecordingFormat.writeFrame(output, RecordingFormat.RECORD_ENTRY, frame, crc);
+            if (sink != null)
+            {
+                sink.accept(record.tagId, tags.getName(record.tagId), frame);
+            }
+            if (frame.getBuffer().length > MAX_IDLE_FRAME_BUFFER)
+            {
+                // don't keep a buffer of the largest record ever written
+                frame.setBuffer(new byte[4096], -1);
+            }
+            unflushed++;
+            unreportedRecords++;
+            unreportedBytes += output.total() - start;
+        }
+
+        private boolean replaySpilledRecords() throws IOException
+        {
+            if (!replaysSpill || !hasSpilledRecords())
+            {
+                return false;
+            }
+            if (unflushed == 0)
+            {
+                firstUnflushedNs = System.nanoTime();
+            }
+            overflowHandler.getSpillFile().replay(record -> {
+                StorageThread target = selectStorageThread(tags.getName(record.tagId));
+                if (target != this && target.isAlive() && target.records.offer(record))
+                {
+                    target.signal();
+                    return;
+                }
+                // record that can't be handed over to its route is better stored here than lost
+                writeRecord(record);
+                pool.release(record);
+            });
+            return true;
         }
     }
 }
@@ -1,8 +1,20 @@
 package com.focusit.jsflight.recorder.internalevent;
 
 import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,19 +26,42 @@ import org.slf4j.LoggerFactory;
 public class InternalEventRecorderBuilder
 {
     private static final Logger LOG = LoggerFactory.getLogger(InternalEventRecorderBuilder.class);
+    private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
 
     private final String outputPath;
     //Configuration defaults
     private int maxElementsBeforeFlush = -1;
+    private int maxBatchSize = 256;
+    private long maxFlushDelayMs = 100;
     private int maxQueueSize = 4096;
+    private QueueType queueType = QueueType.ARRAY_BLOCKING;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long overflowWaitTimeoutMs = 100;
     private boolean storeInGzip = false;
+    private BlockCompression blockCompression;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int indexInterval = 512;
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.NEVER;
+    private long fsyncIntervalMs = 1000;
     private String threadName = "internal-event-storage";
-    private FileStrategy strategy;
+    private Function<String, FileStrategy> strategyFactory = SimpleIncrementFileStrategy::new;
+    private int shards = 1;
+    private long maxSegmentSize = 0;
+    private long maxSegmentAgeMs = 0;
+    private boolean rollover = false;
+    private int retainedFiles = -1;
+    private long retainedSize = -1;
+    private boolean compressClosedFiles = false;
+    private String networkHost;
+    private int networkPort;
+    private String networkNode;
+    private OutputStrategy outputStrategy = FileSegmentOutputStream::new;
+    private TimeSource timeSource;
+    private final Map<String, InternalEventRecorderBuilder> routes = new LinkedHashMap<>();
 
     private InternalEventRecorderBuilder(String outputPath)
     {
         this.outputPath = outputPath;
-        this.strategy = new SimpleIncrementFileStrategy(outputPath);
     }
 
     public static InternalEventRecorderBuilder builderFor(String outputPath)
@@ -46,9 +81,93 @@ public class InternalEventRecorderBuilder
         return this;
     }
 
+    /**
+     * Selects queue implementation used to pass records from pushing threads to the storage thread
+     */
+    public InternalEventRecorderBuilder queueType(QueueType queueType)
+    {
+        this.queueType = queueType;
+        return this;
+    }
+
+    /**
+     * Defines what a pushing thread does when the queue is full, {@link OverflowPolicy#BLOCK} by default.
+     * Other policies keep pushing threads responsive at the cost of dropped or reordered records
+     */
+    public InternalEventRecorderBuilder overflowPolicy(OverflowPolicy overflowPolicy)
+    {
+        this.overflowPolicy = overflowPolicy;
+        return this;
+    }
+
+    /**
+     * Max time a pushing thread waits for a free slot with {@link OverflowPolicy#BOUNDED_WAIT}
+     */
+    public InternalEventRecorderBuilder overflowWaitTimeout(long overflowWaitTimeoutMs)
+    {
+        this.overflowWaitTimeoutMs = overflowWaitTimeoutMs;
+        return this;
+    }
+
     public InternalEventRecorderBuilder storeInGzip()
     {
         this.storeInGzip = true;
+        this.blockCompression = null;
+        return this;
+    }
+
+    /**
+     * Stores files as independently compressed and checksummed blocks of 64Kb instead of a single gzip stream.
+     * A partial block is written only once it is older than {@link #maxFlushDelay(long)}, so a crash loses
+     * records pushed within that delay, even flushed ones, plus records not flushed yet
+     */
+    public InternalEventRecorderBuilder blockCompression(BlockCompression compression)
+    {
+        return blockCompression(compression, DEFAULT_BLOCK_SIZE);
+    }
+
+    public InternalEventRecorderBuilder blockCompression(BlockCompression compression, int blockSize)
+    {
+        if (blockSize <= 0)
+        {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.blockCompression = compression;
+        this.blockSize = blockSize;
+        this.storeInGzip = false;
+        return this;
+    }
+
+    /**
+     * Number of records covered by a single entry of the index written to the end of every file.
+     * Smaller interval means less records decoded by {@link IndexedEventReader} but a larger footer. 0 disables index
+     */
+    public InternalEventRecorderBuilder indexInterval(int records)
+    {
+        if (records < 0)
+        {
+            throw new IllegalArgumentException("Index interval must not be negative: " + records);
+        }
+        this.indexInterval = records;
+        return this;
+    }
+
+    /**
+     * When flushed records are forced to the storage device. Flushed records survive a crash of the JVM,
+     * only forced ones survive a crash of the OS or a power loss
+     */
+    public InternalEventRecorderBuilder fsyncPolicy(FsyncPolicy fsyncPolicy)
+    {
+        this.fsyncPolicy = fsyncPolicy;
+        return this;
+    }
+
+    /**
+     * Min interval between two forces of {@link FsyncPolicy#INTERVAL}
+     */
+    public InternalEventRecorderBuilder fsyncInterval(long fsyncIntervalMs)
+    {
+        this.fsyncIntervalMs = fsyncIntervalMs;
         return this;
     }
 
@@ -58,15 +177,368 @@ public class InternalEventRecorderBuilder
         return this;
     }
 
+    /**
+     * Max number of records the storage thread takes from the queue and serializes at once
+     */
+    public InternalEventRecorderBuilder maxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Max time a serialized record may wait for a flush while the queue is never empty.
+     * Storage thread always flushes as soon as it drains the queue.
+     * With {@link #blockCompression} a partial block is written once it is older than this delay,
+     * until then flushed records are kept in memory
+     */
+    public InternalEventRecorderBuilder maxFlushDelay(long maxFlushDelayMs)
+    {
+        this.maxFlushDelayMs = maxFlushDelayMs;
+        return this;
+    }
+
+    /**
+     * Start a new dated file every rolloverInterval ms. Only the previous file is kept unless
+     * {@link #retainFiles(int)} or {@link #retainTotalSize(long)} is set
+     */
     public InternalEventRecorderBuilder rolloverStrategy(long rolloverInterval)
     {
-        this.strategy = new RollOverFileStrategy(outputPath, rolloverInterval);
+        this.strategyFactory = path -> new RollOverFileStrategy(path, rolloverInterval);
+        this.rollover = true;
+        return this;
+    }
+
+    /**
+     * Start a new file once the current one has about maxSegmentSize bytes. 0 disables the limit
+     */
+    public InternalEventRecorderBuilder maxSegmentSize(long maxSegmentSize)
+    {
+        this.maxSegmentSize = maxSegmentSize;
+        return this;
+    }
+
+    /**
+     * Start a new file once records of the current one span maxSegmentAgeMs. 0 disables the limit
+     */
+    public InternalEventRecorderBuilder maxSegmentAge(long maxSegmentAgeMs)
+    {
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        return this;
+    }
+
+    /**
+     * Keep at most maxFiles closed files per storage thread, older ones are deleted by a background thread.
+     * The file being written is not counted
+     */
+    public InternalEventRecorderBuilder retainFiles(int maxFiles)
+    {
+        if (maxFiles < 0)
+        {
+            throw new IllegalArgumentException("Number of retained files must not be negative: " + maxFiles);
+        }
+        this.retainedFiles = maxFiles;
+        return this;
+    }
+
+    /**
+     * Keep closed files of a storage thread within maxBytes, older ones are deleted by a background thread.
+     * The file being written is not counted
+     */
+    public InternalEventRecorderBuilder retainTotalSize(long maxBytes)
+    {
+        if (maxBytes < 0)
+        {
+            throw new IllegalArgumentException("Retained size must not be negative: " + maxBytes);
+        }
+        this.retainedSize = maxBytes;
+        return this;
+    }
+
+    /**
+     * Gzip closed files by a background thread. Ignored if files are compressed while being written
+     */
+    public InternalEventRecorderBuilder compressClosedFiles()
+    {
+        this.compressClosedFiles = true;
+        return this;
+    }
+
+    /**
+     * Write records through memory mapped files preallocated to segmentSize bytes.
+     * When a segment is full, recording continues in a new file given by the file strategy
+     */
+    public InternalEventRecorderBuilder memoryMappedSegments(long segmentSize)
+    {
+        if (segmentSize <= 0 || segmentSize > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException(
+                    "Segment size must be in (0, " + Integer.MAX_VALUE + "]: " + segmentSize);
+        }
+        this.outputStrategy = file -> new MappedSegmentOutputStream(file, segmentSize);
+        return this;
+    }
+
+    /**
+     * Source of record timestamps. Defaults to {@link TimeSources#hybrid(long)} recalibrated every second
+     */
+    public InternalEventRecorderBuilder timeSource(TimeSource timeSource)
+    {
+        this.timeSource = timeSource;
+        return this;
+    }
+
+    /**
+     * Split recording into several shards. Every shard has its own queue, storage thread and output files,
+     * files of shard N get "_shardN" suffix. Pushing thread always sends its records to the same shard.
+     * Record ids are global, so {@link MergingEventReader} restores overall order of the records
+     */
+    public InternalEventRecorderBuilder shards(int shards)
+    {
+        if (shards <= 0)
+        {
+            throw new IllegalArgumentException("Number of shards must be positive: " + shards);
+        }
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Stream records to a {@link RecordingCollector} in addition to local files. Records the collector can't take
+     * in time wait in a spool file next to the recording
+     */
+    public InternalEventRecorderBuilder networkSink(String host, int port)
+    {
+        this.networkHost = host;
+        this.networkPort = port;
+        return this;
+    }
+
+    /**
+     * Name of this node reported to the {@link RecordingCollector}. Defaults to the host name
+     */
+    public InternalEventRecorderBuilder networkNodeName(String networkNode)
+    {
+        this.networkNode = networkNode;
+        return this;
+    }
+
+    /**
+     * Store records with the given tags apart from the others. Storage and file settings of the route are taken
+     * from routeBuilder, its queue, overflow and time settings are ignored.
+     * Record ids stay global, so records of all routes can be merged back by {@link MergingEventReader}
+     */
+    public InternalEventRecorderBuilder route(InternalEventRecorderBuilder routeBuilder, String... tags)
+    {
+        if (tags.length == 0)
+        {
+            throw new IllegalArgumentException("Route must have at least one tag");
+        }
+        for (String tag : tags)
+        {
+            String name = TagRegistry.normalize(tag);
+            if (routes.containsKey(name))
+            {
+                throw new IllegalArgumentException("Tag " + name + " is routed twice");
+            }
+            routes.put(name, routeBuilder);
+        }
         return this;
     }
 
     public InternalEventRecorder build()
     {
-        return new InternalEventRecorder(maxElementsBeforeFlush, maxQueueSize, threadName, storeInGzip, strategy);
+        List<InternalEventRecorderBuilder> routeBuilders = new ArrayList<>();
+        routeBuilders.add(this);
+        Map<String, Integer> routeByTag = new HashMap<>();
+        routes.forEach((tag, routeBuilder) -> {
+            if (!routeBuilders.contains(routeBuilder))
+            {
+                routeBuilders.add(routeBuilder);
+            }
+            routeByTag.put(tag, routeBuilders.indexOf(routeBuilder));
+        });
+
+        ExecutorService housekeeper = null;
+        if (routeBuilders.stream().anyMatch(InternalEventRecorderBuilder::needsRetention))
+        {
+            housekeeper = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, threadName + "-retention");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        List<StorageShard> storageShards = new ArrayList<>();
+        for (int route = 0; route < routeBuilders.size(); route++)
+        {
+            String name = route == 0 ? threadName : threadName + "-route" + route;
+            routeBuilders.get(route).addShards(storageShards, route, name, housekeeper);
+        }
+        int capacity = 0;
+        for (StorageShard shard : storageShards)
+        {
+            capacity += shard.queue.capacity();
+        }
+        RecordPool pool = new RecordPool(capacity);
+        return new InternalEventRecorder(threadName, storageShards, routeByTag, pool, createOverflowHandler(pool),
+                timeSource != null ? timeSource : TimeSources.hybrid(1000));
+    }
+
+    private StorageSettings createSettings()
+    {
+        StorageSettings settings = new StorageSettings();
+        settings.maxElementsBeforeFlush = maxElementsBeforeFlush;
+        settings.maxBatchSize = maxBatchSize;
+        settings.maxFlushDelayNs = TimeUnit.MILLISECONDS.toNanos(maxFlushDelayMs);
+        settings.storeInGzip = storeInGzip;
+        settings.blockCompression = blockCompression;
+        settings.blockSize = blockSize;
+        settings.indexInterval = indexInterval;
+        settings.fsyncPolicy = fsyncPolicy;
+        settings.fsyncIntervalNs = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+        settings.outputStrategy = outputStrategy;
+        settings.maxSegmentSize = maxSegmentSize;
+        settings.maxSegmentAgeMs = maxSegmentAgeMs;
+        settings.networkHost = networkHost;
+        settings.networkPort = networkPort;
+        settings.networkNode = networkNode != null ? networkNode : getHostName();
+        return settings;
+    }
+
+    private static String getHostName()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e)
+        {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Adds storage shards of a route configured by this builder
+     */
+    private void addShards(List<StorageShard> storageShards, int route, String name, ExecutorService housekeeper)
+    {
+        StorageSettings settings = createSettings();
+        int maxFiles = getRetainedFiles();
+        boolean compress = isCompressingClosedFiles();
+        for (int i = 0; i < shards; i++)
+        {
+            SegmentRetention retention = needsRetention()
+                    ? new SegmentRetention(housekeeper, maxFiles, retainedSize, compress) : null;
+            if (shards == 1)
+            {
+                storageShards.add(new StorageShard(name, route, settings, createQueue(),
+                        strategyFactory.apply(outputPath), retention));
+            }
+            else
+            {
+                storageShards.add(new StorageShard(name + "-" + i, route, settings, createQueue(),
+                        strategyFactory.apply(outputPath + "_shard" + i), retention));
+            }
+        }
+    }
+
+    private int getRetainedFiles()
+    {
+        return retainedFiles < 0 && retainedSize < 0 && rollover ? 1 : retainedFiles;
+    }
+
+    private boolean isCompressingClosedFiles()
+    {
+        return compressClosedFiles && !storeInGzip && blockCompression == null;
+    }
+
+    private boolean needsRetention()
+    {
+        return getRetainedFiles() >= 0 || retainedSize >= 0 || isCompressingClosedFiles();
+    }
+
+    private OverflowHandler createOverflowHandler(RecordPool pool)
+    {
+        SpillFile spillFile = overflowPolicy == OverflowPolicy.SPILL_TO_DISK ? new SpillFile(outputPath) : null;
+        return new OverflowHandler(overflowPolicy, TimeUnit.MILLISECONDS.toNanos(overflowWaitTimeoutMs), spillFile,
+                pool);
+    }
+
+    private RecordQueue<InternalEventRecorder.InternalEventRecord> createQueue()
+    {
+        switch (queueType)
+        {
+        case RING_BUFFER:
+            return new RingBufferRecordQueue<>(maxQueueSize);
+        default:
+            return new BlockingRecordQueue<>(maxQueueSize);
+        }
+    }
+
+    /**
+     * Queue implementations available for {@link InternalEventRecorder}
+     */
+    public enum QueueType
+    {
+        /**
+         * {@link java.util.concurrent.ArrayBlockingQueue}. Single lock shared by all pushing threads
+         */
+        ARRAY_BLOCKING,
+        /**
+         * Lock-free ring buffer with preallocated slots. Pushing threads claim slots by CAS,
+         * so recording overhead doesn't grow with the number of concurrent requests.
+         * Queue size is rounded up to a power of two
+         */
+        RING_BUFFER
+    }
+
+    /**
+     * What to do with a record when the queue is full
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Wait for a free slot as long as needed. Pushing thread may block for unbounded time
+         */
+        BLOCK,
+        /**
+         * Discard the record being pushed and count it as dropped
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued records until the new one fits, count them as dropped
+         */
+        DROP_OLDEST,
+        /**
+         * Wait for a free slot not longer than {@link #overflowWaitTimeout(long)}, then drop the record
+         */
+        BOUNDED_WAIT,
+        /**
+         * Write the record to a spill file next to the output file.
+         * Storage thread moves spilled records to the recording once the queue is drained, so they are stored
+         * after records queued later and record ids in the recording are not ordered
+         */
+        SPILL_TO_DISK
+    }
+
+    /**
+     * When written records are forced from the OS cache to the storage device
+     */
+    public enum FsyncPolicy
+    {
+        /**
+         * Leave it to the OS
+         */
+        NEVER,
+        /**
+         * Force after every flush of a batch
+         */
+        PER_BATCH,
+        /**
+         * Force on flush if {@link #fsyncInterval(long)} has passed since the last force
+         */
+        INTERVAL
     }
 
     /**
@@ -85,6 +557,14 @@ public class InternalEventRecorderBuilder
         }
     }
 
+    /**
+     * Strategy for opening an output stream for a file given by {@link FileStrategy}
+     */
+    interface OutputStrategy
+    {
+        SegmentOutputStream openSegment(File file) throws IOException;
+    }
+
     /**
      * Created by dkolmogortsev on 06.03.17.
      * Simple strategy that adds counter value to file name
@@ -115,17 +595,20 @@ public class InternalEventRecorderBuilder
 
     /**
      * Created by dkolmogortsev on 06.03.17.
-     * File strategy that rolls over previous file(prev. file is deleted)
-     * on each request for new file current date in format "yyyy-MM-dd_HH-mm-ss" is added to base file
+     * File strategy that rolls over previous file
+     * on each request for new file current date in format "yyyy-MM-dd_HH-mm-ss-SSS" is added to base file.
+     * Files opened within the same millisecond or left by a previous run get a sequence number suffix.
+     * Previous files are deleted by {@link SegmentRetention}
      */
     private class RollOverFileStrategy implements FileStrategy
     {
-        private final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss");
+        private final SimpleDateFormat FORMAT = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss-SSS");
 
         private final long rolloverInterval;
         private final String outputPath;
         private long rolloverDate;
-        private File previous;
+        private String lastName;
+        private int sequence;
 
         private RollOverFileStrategy(String outputPath, long rolloverInterval)
         {
@@ -138,11 +621,15 @@ public class InternalEventRecorderBuilder
         public File getNewFile()
         {
             updateRolloverDate();
-            if (previous != null)
+            String name = outputPath + "_" + FORMAT.format(new Date());
+            sequence = name.equals(lastName) ? sequence + 1 : 0;
+            lastName = name;
+            File file = sequence == 0 ? new File(name) : new File(name + "_" + sequence);
+            // a closed file may be compressed in the background
+            while (file.exists() || new File(file.getPath() + ".gz").exists())
             {
-                previous.delete();
+                file = new File(name + "_" + ++sequence);
             }
-            File file = previous = new File(outputPath + "_" + FORMAT.format(new Date()));
             return file;
         }
 
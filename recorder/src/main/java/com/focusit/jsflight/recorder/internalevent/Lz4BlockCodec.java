@@ -0,0 +1,191 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure java {@link BlockCodec} producing blocks in LZ4 block format.
+ * Compressor uses a single hash table probe per position (like LZ4 "fast" mode),
+ * so it trades some ratio for speed: it is several times faster than deflate on recorded data
+ */
+class Lz4BlockCodec implements BlockCodec
+{
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    @Override
+    public int maxCompressedLength(int length)
+    {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] source, int length, byte[] destination)
+    {
+        int destinationPosition = 0;
+        int anchor = 0;
+        if (length > MATCH_FIND_LIMIT)
+        {
+            Arrays.fill(hashTable, -1);
+            int matchStartLimit = length - MATCH_FIND_LIMIT;
+            int matchEndLimit = length - LAST_LITERALS;
+            int position = 0;
+            int searchCount = 1 << SKIP_TRIGGER;
+            while (position < matchStartLimit)
+            {
+                int sequence = readInt(source, position);
+                int hash = hash(sequence);
+                int reference = hashTable[hash];
+                hashTable[hash] = position;
+                if (reference < 0 || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence)
+                {
+                    // accelerate over incompressible data
+                    position += searchCount++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                searchCount = 1 << SKIP_TRIGGER;
+
+                int matchLength = MIN_MATCH;
+                while (position + matchLength < matchEndLimit
+                        && source[reference + matchLength] == source[position + matchLength])
+                {
+                    matchLength++;
+                }
+                destinationPosition = writeSequence(source, anchor, position - anchor, position - reference,
+                        matchLength, destination, destinationPosition);
+                position += matchLength;
+                anchor = position;
+            }
+        }
+        return writeLastLiterals(source, anchor, length - anchor, destination, destinationPosition);
+    }
+
+    @Override
+    public void decompress(byte[] source, int length, byte[] destination, int originalLength) throws IOException
+    {
+        int sourcePosition = 0;
+        int destinationPosition = 0;
+        try
+        {
+            while (sourcePosition < length)
+            {
+                int token = source[sourcePosition++] & 0xFF;
+
+                int literalLength = token >>> 4;
+                if (literalLength == 0xF)
+                {
+                    int next;
+                    do
+                    {
+                        next = source[sourcePosition++] & 0xFF;
+                        literalLength += next;
+                    }
+                    while (next == 0xFF);
+                }
+                System.arraycopy(source, sourcePosition, destination, destinationPosition, literalLength);
+                sourcePosition += literalLength;
+                destinationPosition += literalLength;
+                if (sourcePosition >= length)
+                {
+                    break;
+                }
+
+                int offset = (source[sourcePosition] & 0xFF) | ((source[sourcePosition + 1] & 0xFF) << 8);
+                sourcePosition += 2;
+                int matchLength = token & 0xF;
+                if (matchLength == 0xF)
+                {
+                    int next;
+                    do
+                    {
+                        next = source[sourcePosition++] & 0xFF;
+                        matchLength += next;
+                    }
+                    while (next == 0xFF);
+                }
+                matchLength += MIN_MATCH;
+
+                int reference = destinationPosition - offset;
+                if (offset == 0 || reference < 0 || destinationPosition + matchLength > originalLength)
+                {
+                    throw new IOException("Corrupted lz4 block at " + sourcePosition);
+                }
+                // regions may overlap, so copy byte by byte
+                for (int i = 0; i < matchLength; i++)
+                {
+                    destination[destinationPosition++] = destination[reference + i];
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException e)
+        {
+            throw new IOException("Corrupted lz4 block", e);
+        }
+        if (destinationPosition != originalLength)
+        {
+            throw new IOException("Lz4 block is truncated: " + destinationPosition + " of " + originalLength);
+        }
+    }
+
+    private static int hash(int sequence)
+    {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] source, int position)
+    {
+        return (source[position] & 0xFF) | ((source[position + 1] & 0xFF) << 8) | ((source[position + 2] & 0xFF) << 16)
+                | ((source[position + 3] & 0xFF) << 24);
+    }
+
+    private static int writeSequence(byte[] source, int literalStart, int literalLength, int offset, int matchLength,
+            byte[] destination, int position)
+    {
+        int tokenPosition = position++;
+        int matchToken = matchLength - MIN_MATCH;
+        int token = (Math.min(literalLength, 0xF) << 4) | Math.min(matchToken, 0xF);
+        destination[tokenPosition] = (byte)token;
+        if (literalLength >= 0xF)
+        {
+            position = writeLength(literalLength - 0xF, destination, position);
+        }
+        System.arraycopy(source, literalStart, destination, position, literalLength);
+        position += literalLength;
+        destination[position++] = (byte)offset;
+        destination[position++] = (byte)(offset >>> 8);
+        if (matchToken >= 0xF)
+        {
+            position = writeLength(matchToken - 0xF, destination, position);
+        }
+        return position;
+    }
+
+    private static int writeLastLiterals(byte[] source, int literalStart, int literalLength, byte[] destination,
+            int position)
+    {
+        destination[position++] = (byte)(Math.min(literalLength, 0xF) << 4);
+        if (literalLength >= 0xF)
+        {
+            position = writeLength(literalLength - 0xF, destination, position);
+        }
+        System.arraycopy(source, literalStart, destination, position, literalLength);
+        return position + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] destination, int position)
+    {
+        while (length >= 0xFF)
+        {
+            destination[position++] = (byte)0xFF;
+            length -= 0xFF;
+        }
+        destination[position++] = (byte)length;
+        return position;
+    }
+}
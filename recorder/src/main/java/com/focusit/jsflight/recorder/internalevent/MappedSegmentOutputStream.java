@@ -0,0 +1,109 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segment preallocated to a fixed size and written through {@link MappedByteBuffer}.
+ * Writes are plain memory copies, so flushing a segment costs no syscall: the OS writes dirty pages back itself.
+ * <p>
+ * If a record doesn't fit into the rest of the segment, the next region of the same size is mapped,
+ * so the record stays whole and the segment reports itself as full. Regions left behind are kept till the next
+ * {@link #sync()} forces them.
+ * On close the file is truncated to the number of bytes actually written
+ */
+class MappedSegmentOutputStream extends SegmentOutputStream
+{
+    private final long segmentSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long regionStart = 0;
+    private final List<MappedByteBuffer> unsyncedRegions = new ArrayList<>();
+
+    MappedSegmentOutputStream(File destination, long segmentSize) throws IOException
+    {
+        this.segmentSize = segmentSize;
+        this.file = new RandomAccessFile(destination, "rw");
+        this.channel = file.getChannel();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    }
+
+    @Override
+    boolean isFull()
+    {
+        return position() >= segmentSize;
+    }
+
+    @Override
+    long position()
+    {
+        return regionStart + buffer.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        ensureRemaining();
+        buffer.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        while (len > 0)
+        {
+            ensureRemaining();
+            int chunk = Math.min(len, buffer.remaining());
+            buffer.put(b, off, chunk);
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    @Override
+    void sync()
+    {
+        for (MappedByteBuffer region : unsyncedRegions)
+        {
+            region.force();
+        }
+        unsyncedRegions.clear();
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (buffer == null)
+        {
+            return;
+        }
+        try
+        {
+            long size = position();
+            buffer = null;
+            unsyncedRegions.clear();
+            channel.truncate(size);
+        }
+        finally
+        {
+            file.close();
+        }
+    }
+
+    private void ensureRemaining() throws IOException
+    {
+        if (!buffer.hasRemaining())
+        {
+            regionStart += buffer.capacity();
+            unsyncedRegions.add(buffer);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, segmentSize);
+        }
+    }
+}
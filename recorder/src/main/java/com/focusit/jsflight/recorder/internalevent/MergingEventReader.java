@@ -0,0 +1,138 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reads records of a sharded recording (see {@link InternalEventRecorderBuilder#shards(int)}) in id order.
+ * <p>
+ * Record ids are taken before a record is queued, so records of concurrent threads may be stored slightly out of
+ * order even within one shard. Reader keeps reorderWindow records of every shard ahead,
+ * which is enough as long as no record is displaced further than that in its shard
+ */
+public class MergingEventReader implements Closeable
+{
+    public static final int DEFAULT_REORDER_WINDOW = 1024;
+
+    private final List<ShardInput> inputs = new ArrayList<>();
+    private final PriorityQueue<PendingRecord> pending = new PriorityQueue<>(
+            Comparator.comparingLong(item -> item.record.id));
+
+    /**
+     * @param shards files of every shard in the order they were written
+     */
+    public MergingEventReader(List<List<File>> shards) throws IOException
+    {
+        this(shards, DEFAULT_REORDER_WINDOW);
+    }
+
+    public MergingEventReader(List<List<File>> shards, int reorderWindow) throws IOException
+    {
+        for (List<File> files : shards)
+        {
+            ShardInput input = new ShardInput(files);
+            inputs.add(input);
+            for (int i = 0; i < reorderWindow && readAhead(input); i++)
+            {
+                // fill reorder window
+            }
+        }
+    }
+
+    /**
+     * @return record with the least id among not yet read ones or null if there are no more records
+     */
+    public InternalEventRecorder.InternalEventRecord read() throws IOException
+    {
+        PendingRecord next = pending.poll();
+        if (next == null)
+        {
+            return null;
+        }
+        readAhead(next.input);
+        return next.record;
+    }
+
+    @Override
+    public void close()
+    {
+        for (ShardInput input : inputs)
+        {
+            input.close();
+        }
+    }
+
+    private boolean readAhead(ShardInput input) throws IOException
+    {
+        InternalEventRecorder.InternalEventRecord record = input.next();
+        if (record == null)
+        {
+            return false;
+        }
+        pending.add(new PendingRecord(input, record));
+        return true;
+    }
+
+    private static class PendingRecord
+    {
+        private final ShardInput input;
+        private final InternalEventRecorder.InternalEventRecord record;
+
+        private PendingRecord(ShardInput input, InternalEventRecorder.InternalEventRecord record)
+        {
+            this.input = input;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Reads files of one shard one after another
+     */
+    private static class ShardInput
+    {
+        private final Iterator<File> files;
+        private InternalEventReader reader;
+
+        private ShardInput(List<File> files)
+        {
+            this.files = files.iterator();
+        }
+
+        private InternalEventRecorder.InternalEventRecord next() throws IOException
+        {
+            while (true)
+            {
+                if (reader != null)
+                {
+                    InternalEventRecorder.InternalEventRecord record = reader.read();
+                    if (record != null)
+                    {
+                        return record;
+                    }
+                    reader.close();
+                    reader = null;
+                }
+                if (!files.hasNext())
+                {
+                    return null;
+                }
+                reader = InternalEventReader.open(files.next());
+            }
+        }
+
+        private void close()
+        {
+            if (reader != null)
+            {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
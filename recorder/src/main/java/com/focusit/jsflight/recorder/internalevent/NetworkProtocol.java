@@ -0,0 +1,24 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Protocol between {@link NetworkSink} and {@link RecordingCollector}.
+ * <p>
+ * Sink opens a connection with a hello: {@link #MAGIC}, {@link #VERSION}, node name, stream id and
+ * kryo class registry of {@link RecordingFormat}. Collector answers with the sequence number of the last batch
+ * it has stored for the stream, 0 if none.
+ * <p>
+ * Then sink sends batches: sequence number, length, CRC32 and the batch itself. A batch is a sequence of
+ * tag and record frames of {@link RecordingFormat}, every tag used by the batch is defined in the batch.
+ * Collector acknowledges every stored batch with its sequence number
+ */
+final class NetworkProtocol
+{
+    static final int MAGIC = 0x4A53464E; // JSFN
+    static final byte VERSION = 1;
+    static final int MAX_HELLO_LENGTH = 64 * 1024;
+    static final int MAX_BATCH_LENGTH = 64 * 1024 * 1024;
+
+    private NetworkProtocol()
+    {
+    }
+}
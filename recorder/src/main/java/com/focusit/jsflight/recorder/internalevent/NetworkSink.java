@@ -0,0 +1,363 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.io.FastOutput;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Streams records written by a storage thread to a {@link RecordingCollector}, see {@link NetworkProtocol}.
+ * <p>
+ * Storage thread packs records it has already serialized into batches, a sender thread ships them one by one
+ * and waits for acknowledgement. Batches that don't fit into the memory queue, e.g. while the collector is
+ * unreachable, wait in a {@link SinkSpool} next to the recording. On reconnect the collector tells the last batch
+ * it has stored, so sending resumes right after it.
+ * <p>
+ * Batches are numbered by the sink rather than by record ids: records of concurrent pushing threads may reach
+ * a storage thread slightly out of id order.
+ * <p>
+ * Batches not delivered when the recorder stops are kept in the spool and sent by the next run under the same
+ * stream id, which is kept in a file next to the spool. A run starting with an empty spool takes a new stream id
+ */
+class NetworkSink
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NetworkSink.class);
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final int QUEUE_SIZE = 64;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    private static final long MIN_RETRY_DELAY_MS = 500;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    private static final long DRAIN_TIMEOUT_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final String node;
+    private final String streamId;
+    private final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final SinkSpool spool;
+    private final Thread sender;
+    private volatile boolean closing = false;
+    private volatile long drainDeadline;
+
+    // used by storage thread only
+    private final FastOutput batch = new FastOutput(BATCH_SIZE, -1);
+    private final FastOutput tagFrame = new FastOutput(256, -1);
+    private final BitSet batchTags = new BitSet();
+    private final CRC32 crc = new CRC32();
+    private long lastSequence = 0;
+
+    // used by sender thread only
+    private volatile Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private long retryDelayMs = MIN_RETRY_DELAY_MS;
+    private volatile long acknowledged = 0;
+
+    NetworkSink(String host, int port, String node, File spoolFile, String threadName)
+    {
+        this.host = host;
+        this.port = port;
+        this.node = node;
+        this.spool = new SinkSpool(spoolFile);
+        this.streamId = loadStreamId(new File(spoolFile.getPath() + ".stream"), !spool.isEmpty());
+        this.lastSequence = spool.getLastSequence();
+        this.sender = new Thread(this::send, threadName + "-sink");
+        this.sender.setDaemon(true);
+    }
+
+    void start()
+    {
+        sender.start();
+    }
+
+    /**
+     * Adds a record serialized by the storage thread to the current batch
+     */
+    void accept(int tagId, String tag, Output record)
+    {
+        if (!batchTags.get(tagId))
+        {
+            tagFrame.clear();
+            tagFrame.writeVarInt(tagId, true);
+            tagFrame.writeString(tag);
+            RecordingFormat.writeFrame(batch, RecordingFormat.TAG_ENTRY, tagFrame, crc);
+            batchTags.set(tagId);
+        }
+        RecordingFormat.writeFrame(batch, RecordingFormat.RECORD_ENTRY, record, crc);
+        if (batch.position() >= BATCH_SIZE)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the current batch over to the sender thread
+     */
+    void flush()
+    {
+        if (batch.position() == 0)
+        {
+            return;
+        }
+        Batch sealed = new Batch(++lastSequence, batch.toBytes(), false);
+        batch.clear();
+        batchTags.clear();
+        if (batch.getBuffer().length > BATCH_SIZE * 4)
+        {
+            batch.setBuffer(new byte[BATCH_SIZE], -1);
+        }
+        synchronized (spool)
+        {
+            // once batches are spooled, newer ones go after them to keep the order
+            if (spool.isEmpty() && queue.offer(sealed))
+            {
+                return;
+            }
+            try
+            {
+                spool.append(sealed);
+            }
+            catch (IOException e)
+            {
+                LOG.error("Can't spool records for collector " + host + ":" + port + ", they are only stored locally",
+                        e);
+            }
+        }
+    }
+
+    /**
+     * Gives the sender a short time to deliver remaining batches and stops it.
+     * Batches left undelivered are kept in the spool for the next run
+     */
+    void close() throws InterruptedException
+    {
+        flush();
+        drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+        closing = true;
+        sender.join(DRAIN_TIMEOUT_MS * 2);
+        if (sender.isAlive())
+        {
+            IOUtils.closeQuietly(socket);
+            sender.interrupt();
+            sender.join(DRAIN_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * @return sequence number of the last batch stored by the collector
+     */
+    long getAcknowledged()
+    {
+        return acknowledged;
+    }
+
+    private void send()
+    {
+        Batch current = null;
+        try
+        {
+            while (!closing || System.currentTimeMillis() < drainDeadline)
+            {
+                try
+                {
+                    if (current == null)
+                    {
+                        current = next();
+                        if (current == null)
+                        {
+                            if (closing)
+                            {
+                                break;
+                            }
+                            continue;
+                        }
+                    }
+                    if (socket == null)
+                    {
+                        connect();
+                    }
+                    if (current.sequence > acknowledged)
+                    {
+                        send(current);
+                    }
+                    if (current.spooled)
+                    {
+                        spool.remove(current);
+                    }
+                    current = null;
+                }
+                catch (IOException e)
+                {
+                    if (retryDelayMs == MIN_RETRY_DELAY_MS)
+                    {
+                        LOG.warn("Collector {}:{} is unreachable, records are spooled: {}", host, port, e.toString());
+                    }
+                    disconnect();
+                    long delay = closing ? Math.min(retryDelayMs, drainDeadline - System.currentTimeMillis())
+                            : retryDelayMs;
+                    retryDelayMs = Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+                    if (delay > 0)
+                    {
+                        Thread.sleep(delay);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // closed without waiting for the collector
+        }
+        finally
+        {
+            disconnect();
+            List<Batch> unsent = new ArrayList<>();
+            if (current != null && !current.spooled && current.sequence > acknowledged)
+            {
+                unsent.add(current);
+            }
+            queue.drainTo(unsent);
+            try
+            {
+                spool.prepend(unsent);
+            }
+            catch (IOException e)
+            {
+                LOG.error("Can't spool " + unsent.size() + " batches for collector " + host + ":" + port, e);
+            }
+            if (!spool.isEmpty())
+            {
+                LOG.warn("Not all records are delivered to collector {}:{}, they are left in the spool", host, port);
+            }
+            IOUtils.closeQuietly(spool);
+        }
+    }
+
+    /**
+     * Batches in memory are always older than spooled ones
+     */
+    private Batch next() throws IOException, InterruptedException
+    {
+        Batch next = queue.poll();
+        if (next == null)
+        {
+            next = spool.peek();
+        }
+        if (next == null)
+        {
+            next = queue.poll(100, TimeUnit.MILLISECONDS);
+        }
+        return next;
+    }
+
+    /**
+     * @param resume true to take the stream id of the previous run, if any
+     */
+    private static String loadStreamId(File file, boolean resume)
+    {
+        try
+        {
+            if (resume && file.exists())
+            {
+                return FileUtils.readFileToString(file, StandardCharsets.UTF_8).trim();
+            }
+            String streamId = UUID.randomUUID().toString();
+            FileUtils.writeStringToFile(file, streamId, StandardCharsets.UTF_8);
+            return streamId;
+        }
+        catch (IOException e)
+        {
+            LOG.warn("Can't keep stream id in {}, spooled batches may be sent twice after restart: {}", file,
+                    e.toString());
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    private void connect() throws IOException
+    {
+        Socket connection = new Socket();
+        try
+        {
+            connection.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            connection.setSoTimeout(READ_TIMEOUT_MS);
+            connection.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+
+            Output registry = new Output(256, -1);
+            RecordingFormat.writeRegistry(registry);
+            out.writeInt(NetworkProtocol.MAGIC);
+            out.writeByte(NetworkProtocol.VERSION);
+            out.writeUTF(node);
+            out.writeUTF(streamId);
+            out.writeInt(registry.position());
+            out.write(registry.getBuffer(), 0, registry.position());
+            out.flush();
+            acknowledged = in.readLong();
+        }
+        catch (IOException e)
+        {
+            connection.close();
+            throw e;
+        }
+        socket = connection;
+        retryDelayMs = MIN_RETRY_DELAY_MS;
+        LOG.info("Streaming records to collector {}:{} from batch {}", host, port, acknowledged + 1);
+    }
+
+    private void send(Batch batch) throws IOException
+    {
+        crc.reset();
+        crc.update(batch.bytes);
+        out.writeLong(batch.sequence);
+        out.writeInt(batch.bytes.length);
+        out.writeInt((int)crc.getValue());
+        out.write(batch.bytes);
+        out.flush();
+        long sequence = in.readLong();
+        if (sequence != batch.sequence)
+        {
+            throw new IOException("Collector acknowledged batch " + sequence + " instead of " + batch.sequence);
+        }
+        acknowledged = sequence;
+    }
+
+    private void disconnect()
+    {
+        IOUtils.closeQuietly(socket);
+        socket = null;
+    }
+
+    static class Batch
+    {
+        final long sequence;
+        final byte[] bytes;
+        /**
+         * True if the batch is taken from {@link SinkSpool}
+         */
+        final boolean spooled;
+
+        Batch(long sequence, byte[] bytes, boolean spooled)
+        {
+            this.sequence = sequence;
+            this.bytes = bytes;
+            this.spooled = spooled;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts records into a queue according to {@link InternalEventRecorderBuilder.OverflowPolicy}
+ * and counts records that were dropped or spilled because the queue was full
+ */
+class OverflowHandler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OverflowHandler.class);
+
+    private final InternalEventRecorderBuilder.OverflowPolicy policy;
+    private final long waitTimeoutNs;
+    private final SpillFile spillFile;
+    private final RecordPool pool;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong spilled = new AtomicLong(0);
+
+    OverflowHandler(InternalEventRecorderBuilder.OverflowPolicy policy, long waitTimeoutNs, SpillFile spillFile,
+            RecordPool pool)
+    {
+        this.pool = pool;
+        this.policy = policy;
+        this.waitTimeoutNs = waitTimeoutNs;
+        this.spillFile = spillFile;
+    }
+
+    void enqueue(RecordQueue<InternalEventRecorder.InternalEventRecord> queue,
+            InternalEventRecorder.InternalEventRecord record) throws InterruptedException
+    {
+        switch (policy)
+        {
+        case BLOCK:
+            queue.put(record);
+            break;
+        case DROP_NEWEST:
+            if (!queue.offer(record))
+            {
+                drop(record);
+            }
+            break;
+        case DROP_OLDEST:
+            while (!queue.offer(record))
+            {
+                InternalEventRecorder.InternalEventRecord oldest = queue.poll();
+                if (oldest != null)
+                {
+                    drop(oldest);
+                }
+            }
+            break;
+        case BOUNDED_WAIT:
+            if (!queue.offer(record) && !queue.offer(record, waitTimeoutNs, TimeUnit.NANOSECONDS))
+            {
+                drop(record);
+            }
+            break;
+        case SPILL_TO_DISK:
+            if (!queue.offer(record))
+            {
+                spill(record);
+            }
+            break;
+        default:
+            throw new IllegalStateException("Unknown overflow policy " + policy);
+        }
+    }
+
+    SpillFile getSpillFile()
+    {
+        return spillFile;
+    }
+
+    long getDropped()
+    {
+        return dropped.get();
+    }
+
+    long getSpilled()
+    {
+        return spilled.get();
+    }
+
+    private void spill(InternalEventRecorder.InternalEventRecord record)
+    {
+        try
+        {
+            spillFile.append(record);
+            spilled.incrementAndGet();
+            pool.release(record);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Can't spill record " + record.id, e);
+            drop(record);
+        }
+    }
+
+    private void drop(InternalEventRecorder.InternalEventRecord record)
+    {
+        dropped.incrementAndGet();
+        pool.release(record);
+    }
+}
@@ -0,0 +1,32 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Bounded pool of {@link InternalEventRecorder.InternalEventRecord}.
+ * Pushing threads take records from the pool, the storage thread returns them once they are written,
+ * so steady state recording doesn't allocate records at all
+ */
+class RecordPool
+{
+    private final RingBufferRecordQueue<InternalEventRecorder.InternalEventRecord> free;
+
+    RecordPool(int capacity)
+    {
+        this.free = new RingBufferRecordQueue<>(capacity);
+    }
+
+    InternalEventRecorder.InternalEventRecord acquire()
+    {
+        InternalEventRecorder.InternalEventRecord record = free.poll();
+        return record != null ? record : new InternalEventRecorder.InternalEventRecord();
+    }
+
+    /**
+     * Returns record to the pool. Record must not be used by the caller afterwards
+     */
+    void release(InternalEventRecorder.InternalEventRecord record)
+    {
+        record.data = null;
+        record.tag = null;
+        free.offer(record);
+    }
+}
@@ -0,0 +1,49 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue between threads pushing internal events and the storage thread.
+ * Implementation is selected by
+ * {@link InternalEventRecorderBuilder#queueType(InternalEventRecorderBuilder.QueueType)}
+ */
+interface RecordQueue<E>
+{
+    /**
+     * Inserts element if there is a free slot
+     *
+     * @return false if queue is full
+     */
+    boolean offer(E element);
+
+    /**
+     * Inserts element, waiting for a free slot if necessary
+     */
+    void put(E element) throws InterruptedException;
+
+    /**
+     * Inserts element, waiting up to timeout for a free slot
+     *
+     * @return false if no slot got free within timeout
+     */
+    boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * @return head of the queue or null if queue is empty
+     */
+    E poll();
+
+    /**
+     * Moves up to maxElements from the head of the queue to the collection
+     *
+     * @return number of elements moved
+     */
+    int drainTo(Collection<? super E> collection, int maxElements);
+
+    boolean isEmpty();
+
+    int size();
+
+    int capacity();
+}
@@ -0,0 +1,285 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * Receives records streamed by recorders of many nodes, see
+ * {@link InternalEventRecorderBuilder#networkSink(String, int)}, and stores them with a local
+ * {@link InternalEventRecorder}, so records of all nodes end up merged in its files.
+ * Record timestamps are kept, record ids are given by the local recorder.
+ * <p>
+ * A batch is acknowledged only once its records are written and flushed by the local recorder, and forced
+ * to the storage device unless its fsync policy is {@link InternalEventRecorderBuilder.FsyncPolicy#NEVER},
+ * so a node never drops from its spool records the collector could still lose. The last acknowledged batch
+ * of every stream is kept in a state file, so a node reconnecting after a failure of either side doesn't send
+ * it twice. A batch stored but not acknowledged because the collector is killed in between is sent again.
+ * <p>
+ * Usage: {@code RecordingCollector <port> <output path>}, the state file is {@code <output path>.collector}
+ */
+public class RecordingCollector implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingCollector.class);
+
+    private final InternalEventRecorder recorder;
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final Map<String, Long> storedBatches = new ConcurrentHashMap<>();
+    private final File stateFile;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final LongAdder receivedRecords = new LongAdder();
+    private volatile boolean closed = false;
+
+    /**
+     * @param port port to listen to, 0 for any free port
+     * @param recorder recorder storing received records, it must be recording
+     * @param stateFile file keeping the last stored batch of every stream between runs
+     */
+    public RecordingCollector(int port, InternalEventRecorder recorder, File stateFile) throws IOException
+    {
+        this.recorder = recorder;
+        this.stateFile = stateFile;
+        loadStoredBatches();
+        this.server = new ServerSocket(port);
+        this.acceptor = new Thread(this::accept, "recording-collector");
+        this.acceptor.setDaemon(true);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: RecordingCollector <port> <output path>");
+            System.exit(1);
+        }
+        InternalEventRecorder recorder = InternalEventRecorderBuilder.builderFor(args[1]).build();
+        recorder.openFileForWriting();
+        recorder.startRecording();
+        RecordingCollector collector = new RecordingCollector(Integer.parseInt(args[0]), recorder,
+                new File(args[1] + ".collector"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            collector.close();
+            try
+            {
+                recorder.shutdown();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        collector.start();
+        LOG.info("Collecting records on port {} to {}", collector.getPort(), args[1]);
+    }
+
+    public void start()
+    {
+        acceptor.start();
+    }
+
+    public int getPort()
+    {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return number of records received from all nodes
+     */
+    public long getReceivedRecords()
+    {
+        return receivedRecords.sum();
+    }
+
+    /**
+     * Stops accepting records. The recorder is left running
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        IOUtils.closeQuietly(server);
+        connections.forEach(IOUtils::closeQuietly);
+    }
+
+    private void accept()
+    {
+        while (!closed)
+        {
+            try
+            {
+                Socket socket = server.accept();
+                connections.add(socket);
+                Thread connection = new Thread(() -> serve(socket),
+                        "recording-collector-" + socket.getRemoteSocketAddress());
+                connection.setDaemon(true);
+                connection.start();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    LOG.error("Can't accept connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket)
+    {
+        String node = String.valueOf(socket.getRemoteSocketAddress());
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readInt() != NetworkProtocol.MAGIC)
+            {
+                throw new IOException("Not a recording stream");
+            }
+            byte version = in.readByte();
+            if (version != NetworkProtocol.VERSION)
+            {
+                throw new IOException("Unsupported protocol version " + version);
+            }
+            node = in.readUTF();
+            String stream = in.readUTF();
+            int registryLength = in.readInt();
+            if (registryLength < 0 || registryLength > NetworkProtocol.MAX_HELLO_LENGTH)
+            {
+                throw new IOException("Corrupted hello");
+            }
+            byte[] registry = new byte[registryLength];
+            in.readFully(registry);
+            Kryo kryo = RecordingFormat.newKryo(RecordingFormat.readRegistry(new Input(registry)));
+
+            long stored = storedBatches.getOrDefault(stream, 0L);
+            out.writeLong(stored);
+            out.flush();
+            LOG.info("Node {} streams records from batch {}", node, stored + 1);
+
+            CRC32 crc = new CRC32();
+            byte[] batch = new byte[0];
+            while (true)
+            {
+                long sequence;
+                try
+                {
+                    sequence = in.readLong();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                int length = in.readInt();
+                int expectedCrc = in.readInt();
+                if (length < 0 || length > NetworkProtocol.MAX_BATCH_LENGTH)
+                {
+                    throw new IOException("Corrupted batch length " + length);
+                }
+                if (batch.length < length)
+                {
+                    batch = new byte[length];
+                }
+                in.readFully(batch, 0, length);
+                crc.reset();
+                crc.update(batch, 0, length);
+                if ((int)crc.getValue() != expectedCrc)
+                {
+                    throw new IOException("Checksum mismatch of batch " + sequence);
+                }
+                if (sequence > stored)
+                {
+                    store(batch, length, kryo);
+                    recorder.awaitStored();
+                    stored = sequence;
+                    storedBatches.put(stream, sequence);
+                    saveStoredBatches();
+                }
+                out.writeLong(sequence);
+                out.flush();
+            }
+            LOG.info("Node {} disconnected", node);
+        }
+        catch (IOException | InterruptedException | KryoException e)
+        {
+            if (!closed)
+            {
+                LOG.warn("Connection of node {} is broken: {}", node, e.toString());
+            }
+        }
+        finally
+        {
+            connections.remove(socket);
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    private void loadStoredBatches() throws IOException
+    {
+        if (!stateFile.exists())
+        {
+            return;
+        }
+        Properties state = new Properties();
+        try (InputStream in = new FileInputStream(stateFile))
+        {
+            state.load(in);
+        }
+        for (String stream : state.stringPropertyNames())
+        {
+            storedBatches.put(stream, Long.parseLong(state.getProperty(stream)));
+        }
+        LOG.info("Stored batches of {} streams are read from {}", storedBatches.size(), stateFile);
+    }
+
+    /**
+     * Replaces the state file, so it is never seen half written
+     */
+    private void saveStoredBatches() throws IOException
+    {
+        synchronized (stateFile)
+        {
+            Properties state = new Properties();
+            storedBatches.forEach((stream, sequence) -> state.setProperty(stream, Long.toString(sequence)));
+            File written = new File(stateFile.getPath() + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(written))
+            {
+                state.store(out, null);
+                out.getFD().sync();
+            }
+            Files.move(written.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void store(byte[] batch, int length, Kryo kryo) throws InterruptedException
+    {
+        try (InternalEventReader reader = new InternalEventReader(new ByteArrayInputStream(batch, 0, length),
+                Collections.emptyList(), kryo, RecordingFormat.VERSION))
+        {
+            InternalEventRecorder.InternalEventRecord record;
+            while ((record = reader.read()) != null)
+            {
+                recorder.pushReceived(record.tag, record.data, record.timestampNs, record.timestampEpoch);
+                receivedRecords.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecordInformation;
+
+/**
+ * Format of recording files shared by {@link InternalEventRecorder} and {@link InternalEventReader}.
+ * <p>
+ * A file is a sequence of entries, each one starts with an entry type byte:
+ * <ul>
+ * <li>{@link #FORMAT_ENTRY} - format version and Kryo class registry the file was written with.
+ * The first entry of every file. Files without it are of the original format: bare Kryo records with
+ * a char array tag and no entry types</li>
+ * <li>{@link #TAG_ENTRY} - tag dictionary entry: tag id and tag name. Written once per file before the first record
+ * with that tag</li>
+ * <li>{@link #RECORD_ENTRY} - {@link InternalEventRecorder.InternalEventRecord} serialized by Kryo</li>
+ * <li>{@link #END_ENTRY} - end of records. Written when a file is closed, followed by {@link RecordingIndex}</li>
+ * </ul>
+ * Since version 3 tag and record entries are frames: entry type byte, payload length, CRC32 of the payload
+ * and the payload itself. A frame cut by a crash is detected by its length or checksum,
+ * see {@link RecordingRecovery}.
+ * <p>
+ * Registered classes are written as small ids instead of fully qualified names.
+ * Ids are fixed, a class may be added to the registry but never renumbered
+ */
+public final class RecordingFormat
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingFormat.class);
+
+    public static final int VERSION = 3;
+    /**
+     * First version with framed entries
+     */
+    static final int FRAMED_VERSION = 3;
+    /**
+     * Length + CRC32 following the entry type byte of a frame
+     */
+    static final int FRAME_HEADER_LENGTH = 8;
+    /**
+     * Larger length of a frame means the frame header is garbage
+     */
+    static final int MAX_FRAME_LENGTH = 512 * 1024 * 1024;
+
+    static final byte TAG_ENTRY = 1;
+    static final byte RECORD_ENTRY = 2;
+    static final byte END_ENTRY = 3;
+    static final byte FORMAT_ENTRY = 4;
+
+    private static final Map<Integer, Class<?>> REGISTRY = new LinkedHashMap<>();
+
+    static
+    {
+        // ids below 10 are taken by kryo's default registrations
+        REGISTRY.put(20, InternalEventRecorder.InternalEventRecord.class);
+        REGISTRY.put(21, HttpRecordInformation.class);
+        REGISTRY.put(22, IdRecordInfo.class);
+        REGISTRY.put(23, HashMap.class);
+        REGISTRY.put(24, ArrayList.class);
+        REGISTRY.put(25, byte[].class);
+    }
+
+    private RecordingFormat()
+    {
+    }
+
+    /**
+     * @return kryo instance with all classes of the current format registered
+     */
+    public static Kryo newKryo()
+    {
+        Kryo kryo = new Kryo();
+        REGISTRY.forEach((id, type) -> kryo.register(type, id));
+        return kryo;
+    }
+
+    static void writeHeader(Output output)
+    {
+        output.writeByte(FORMAT_ENTRY);
+        output.writeVarInt(VERSION, true);
+        writeRegistry(output);
+    }
+
+    /**
+     * Reads version of a header written by {@link #writeHeader(Output)} after the entry type byte.
+     * Registry follows the version
+     */
+    static int readVersion(Input input)
+    {
+        int version = input.readVarInt(true);
+        if (version > VERSION)
+        {
+            LOG.warn("Recording format {} is newer than supported {}", version, VERSION);
+        }
+        return version;
+    }
+
+    /**
+     * Writes an entry framing payload accumulated in another output
+     */
+    static void writeFrame(Output output, byte entryType, Output payload, CRC32 crc)
+    {
+        crc.reset();
+        crc.update(payload.getBuffer(), 0, payload.position());
+        output.writeByte(entryType);
+        output.writeInt(payload.position());
+        output.writeInt((int)crc.getValue());
+        output.writeBytes(payload.getBuffer(), 0, payload.position());
+    }
+
+    /**
+     * @return kryo instance configured with a registry read from a file
+     */
+    static Kryo newKryo(Map<Integer, String> registry)
+    {
+        Kryo kryo = new Kryo();
+        ClassLoader loader = RecordingFormat.class.getClassLoader();
+        registry.forEach((id, name) -> {
+            try
+            {
+                kryo.register(Class.forName(name, false, loader), id);
+            }
+            catch (ClassNotFoundException e)
+            {
+                // only records holding that class become unreadable
+                LOG.warn("Class {} of recording format registry is not found", name);
+            }
+        });
+        return kryo;
+    }
+
+    static void writeRegistry(Output output)
+    {
+        output.writeVarInt(REGISTRY.size(), true);
+        REGISTRY.forEach((id, type) -> {
+            output.writeVarInt(id, true);
+            output.writeString(type.getName());
+        });
+    }
+
+    static Map<Integer, String> readRegistry(Input input)
+    {
+        Map<Integer, String> registry = new LinkedHashMap<>();
+        int count = input.readVarInt(true);
+        for (int i = 0; i < count; i++)
+        {
+            registry.put(input.readVarInt(true), input.readString());
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,227 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * Sparse index stored in the footer of a recording file.
+ * Every {@link Entry} covers a run of consecutive records and knows where the run starts in the file,
+ * what time range it spans and which tags it contains.
+ * <p>
+ * Footer layout: {@link #FOOTER_MAGIC}, version, stream format, tag dictionary, kryo class registry,
+ * {@link RecordingFormat} version, entries,
+ * then the footer start offset (long) and {@link #FOOTER_MAGIC} again as the last 12 bytes of the file.
+ * Files closed abnormally have no footer, see {@link IndexedEventReader}
+ */
+public class RecordingIndex
+{
+    static final int FOOTER_MAGIC = 0x4A534649; // JSFI
+    static final byte VERSION = 3;
+    static final byte FORMAT_PLAIN = 0;
+    static final byte FORMAT_GZIP = 1;
+    static final byte FORMAT_BLOCKS = 2;
+    static final int TRAILER_LENGTH = 12;
+
+    private final byte format;
+    private final int recordingVersion;
+    private final List<String> tags;
+    private final Map<Integer, String> registry;
+    private final List<Entry> entries;
+
+    RecordingIndex(byte format, int recordingVersion, List<String> tags, Map<Integer, String> registry,
+            List<Entry> entries)
+    {
+        this.format = format;
+        this.recordingVersion = recordingVersion;
+        this.tags = tags;
+        this.registry = registry;
+        this.entries = entries;
+    }
+
+    /**
+     * @return index of a recording file or null if the file has no index footer
+     */
+    public static RecordingIndex read(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            long length = raf.length();
+            if (length < TRAILER_LENGTH)
+            {
+                return null;
+            }
+            raf.seek(length - TRAILER_LENGTH);
+            long footerStart = raf.readLong();
+            if (raf.readInt() != FOOTER_MAGIC || footerStart < 0 || footerStart > length - TRAILER_LENGTH)
+            {
+                return null;
+            }
+            byte[] footer = new byte[(int)(length - TRAILER_LENGTH - footerStart)];
+            raf.seek(footerStart);
+            raf.readFully(footer);
+            return read(new Input(footer));
+        }
+    }
+
+    private static RecordingIndex read(Input input) throws IOException
+    {
+        if (input.readInt() != FOOTER_MAGIC)
+        {
+            throw new IOException("Corrupted index footer");
+        }
+        byte version = input.readByte();
+        if (version < 2 || version > VERSION)
+        {
+            throw new IOException("Unsupported index version " + version);
+        }
+        byte format = input.readByte();
+
+        List<String> tags = new ArrayList<>();
+        int tagCount = input.readVarInt(true);
+        for (int i = 0; i < tagCount; i++)
+        {
+            int id = input.readVarInt(true);
+            while (tags.size() <= id)
+            {
+                tags.add(null);
+            }
+            tags.set(id, input.readString());
+        }
+
+        Map<Integer, String> registry = RecordingFormat.readRegistry(input);
+        // index of version 2 was written along with unframed records
+        int recordingVersion = version > 2 ? input.readVarInt(true) : 2;
+
+        int entryCount = input.readVarInt(true);
+        List<Entry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++)
+        {
+            Entry entry = new Entry();
+            entry.firstId = input.readVarLong(true);
+            entry.count = input.readVarInt(true);
+            entry.minTimestamp = input.readLong();
+            entry.maxTimestamp = input.readLong();
+            entry.offset = input.readVarLong(true);
+            entry.skip = input.readVarLong(true);
+            entry.tagIds = new int[input.readVarInt(true)];
+            for (int j = 0; j < entry.tagIds.length; j++)
+            {
+                entry.tagIds[j] = input.readVarInt(true);
+            }
+            entries.add(entry);
+        }
+        return new RecordingIndex(format, recordingVersion, tags, registry, entries);
+    }
+
+    public List<Entry> getEntries()
+    {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * @return id of the tag in the indexed file or -1 if the file has no records with that tag
+     */
+    public int getTagId(String tag)
+    {
+        return tags.indexOf(tag);
+    }
+
+    public String getTag(int tagId)
+    {
+        return tagId < tags.size() ? tags.get(tagId) : null;
+    }
+
+    /**
+     * Opens a reader positioned at the first record of the entry
+     */
+    InternalEventReader openAt(File file, Entry entry) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            InputStream stream;
+            switch (format)
+            {
+            case FORMAT_PLAIN:
+                in.getChannel().position(entry.offset);
+                stream = new BufferedInputStream(in);
+                break;
+            case FORMAT_BLOCKS:
+                in.getChannel().position(entry.offset);
+                stream = new BlockInputStream(new BufferedInputStream(in), false);
+                break;
+            case FORMAT_GZIP:
+                stream = new GZIPInputStream(new BufferedInputStream(in));
+                break;
+            default:
+                throw new IOException("Unknown stream format " + format);
+            }
+            IOUtils.skipFully(stream, entry.skip);
+            return new InternalEventReader(stream, tags, RecordingFormat.newKryo(registry), recordingVersion);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Run of consecutive records of a file
+     */
+    public static class Entry
+    {
+        long firstId;
+        int count;
+        long minTimestamp;
+        long maxTimestamp;
+        long offset;
+        long skip;
+        int[] tagIds;
+
+        public long getFirstId()
+        {
+            return firstId;
+        }
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        /**
+         * @return least {@link InternalEventRecorder.InternalEventRecord#timestampEpoch} of the run
+         */
+        public long getMinTimestamp()
+        {
+            return minTimestamp;
+        }
+
+        public long getMaxTimestamp()
+        {
+            return maxTimestamp;
+        }
+
+        public boolean hasTag(int tagId)
+        {
+            return Arrays.stream(tagIds).anyMatch(id -> id == tagId);
+        }
+
+        /**
+         * @return true if the run may contain records in the time range, both bounds are inclusive
+         */
+        public boolean overlaps(long fromEpoch, long toEpoch)
+        {
+            return minTimestamp <= toEpoch && maxTimestamp >= fromEpoch;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Collects {@link RecordingIndex} of the file being written by a storage thread and writes it as the file footer
+ */
+class RecordingIndexWriter
+{
+    private final int interval;
+    private final List<RecordingIndex.Entry> entries = new ArrayList<>();
+    private final List<Long> positions = new ArrayList<>();
+    private final List<BitSet> entryTags = new ArrayList<>();
+    private final BitSet fileTags = new BitSet();
+    private RecordingIndex.Entry current;
+    private BitSet currentTags;
+
+    /**
+     * @param interval number of records covered by a single index entry
+     */
+    RecordingIndexWriter(int interval)
+    {
+        this.interval = interval;
+    }
+
+    /**
+     * @param position offset of the record entry in the uncompressed stream of the file
+     */
+    void onRecord(InternalEventRecorder.InternalEventRecord record, long position)
+    {
+        if (current == null || current.count == interval)
+        {
+            current = new RecordingIndex.Entry();
+            current.firstId = record.id;
+            current.minTimestamp = record.timestampEpoch;
+            current.maxTimestamp = record.timestampEpoch;
+            currentTags = new BitSet();
+            entries.add(current);
+            positions.add(position);
+            entryTags.add(currentTags);
+        }
+        current.count++;
+        current.minTimestamp = Math.min(current.minTimestamp, record.timestampEpoch);
+        current.maxTimestamp = Math.max(current.maxTimestamp, record.timestampEpoch);
+        currentTags.set(record.tagId);
+        fileTags.set(record.tagId);
+    }
+
+    /**
+     * Writes the footer. The stream of records must be finished already
+     *
+     * @param stream stream the records were written to, it defines how positions are mapped to file offsets
+     */
+    void write(SegmentOutputStream segment, OutputStream stream, TagRegistry tags) throws IOException
+    {
+        long footerStart = segment.position();
+        Output output = new Output(segment, 4096);
+        output.writeInt(RecordingIndex.FOOTER_MAGIC);
+        output.writeByte(RecordingIndex.VERSION);
+        output.writeByte(formatOf(stream));
+
+        output.writeVarInt(fileTags.cardinality(), true);
+        for (int id = fileTags.nextSetBit(0); id >= 0; id = fileTags.nextSetBit(id + 1))
+        {
+            output.writeVarInt(id, true);
+            output.writeString(tags.getName(id));
+        }
+
+        RecordingFormat.writeRegistry(output);
+        output.writeVarInt(RecordingFormat.VERSION, true);
+
+        output.writeVarInt(entries.size(), true);
+        for (int i = 0; i < entries.size(); i++)
+        {
+            RecordingIndex.Entry entry = entries.get(i);
+            long[] location = locate(stream, positions.get(i));
+            output.writeVarLong(entry.firstId, true);
+            output.writeVarInt(entry.count, true);
+            output.writeLong(entry.minTimestamp);
+            output.writeLong(entry.maxTimestamp);
+            output.writeVarLong(location[0], true);
+            output.writeVarLong(location[1], true);
+            BitSet tagIds = entryTags.get(i);
+            output.writeVarInt(tagIds.cardinality(), true);
+            for (int id = tagIds.nextSetBit(0); id >= 0; id = tagIds.nextSetBit(id + 1))
+            {
+                output.writeVarInt(id, true);
+            }
+        }
+
+        output.writeLong(footerStart);
+        output.writeInt(RecordingIndex.FOOTER_MAGIC);
+        output.flush();
+    }
+
+    void reset()
+    {
+        entries.clear();
+        positions.clear();
+        entryTags.clear();
+        fileTags.clear();
+        current = null;
+        currentTags = null;
+    }
+
+    private static byte formatOf(OutputStream stream)
+    {
+        if (stream instanceof BlockOutputStream)
+        {
+            return RecordingIndex.FORMAT_BLOCKS;
+        }
+        return stream instanceof GZIPOutputStream ? RecordingIndex.FORMAT_GZIP : RecordingIndex.FORMAT_PLAIN;
+    }
+
+    /**
+     * @return offset to seek the file to and number of uncompressed bytes to skip after that
+     */
+    private static long[] locate(OutputStream stream, long position)
+    {
+        if (stream instanceof BlockOutputStream)
+        {
+            return ((BlockOutputStream)stream).locate(position);
+        }
+        if (stream instanceof GZIPOutputStream)
+        {
+            // gzip stream can't be entered in the middle
+            return new long[] { 0, position };
+        }
+        return new long[] { position, 0 };
+    }
+}
@@ -0,0 +1,250 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * Repairs a recording file left unfinished by a crash: the file is read once from the start,
+ * cut after the last valid frame and terminated with {@link RecordingFormat#END_ENTRY}.
+ * Block compressed files are cut after the last valid frame too: blocks before it are kept,
+ * the block holding its end is rewritten uncompressed up to that frame and the blocks are terminated.
+ * Gzipped files can't be cut in place, they are left as is.
+ * <p>
+ * Usage: {@code RecordingRecovery <file>...}
+ */
+public final class RecordingRecovery
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RecordingRecovery.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private RecordingRecovery()
+    {
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: RecordingRecovery <file>...");
+            System.exit(1);
+        }
+        for (String name : args)
+        {
+            File file = new File(name);
+            long removed = recover(file);
+            System.out.println(removed < 0 ? name + ": intact" : name + ": recovered, " + removed + " bytes removed");
+        }
+    }
+
+    /**
+     * @return number of bytes removed from the end of the file, -1 if the file was finished properly
+     * @throws IOException if the file is not a recording that can be recovered
+     */
+    public static long recover(File file) throws IOException
+    {
+        long length = file.length();
+        byte[] magic = new byte[BlockOutputStream.MAGIC.length];
+        int read;
+        try (InputStream in = new FileInputStream(file))
+        {
+            read = IOUtils.read(in, magic);
+        }
+        if (read == magic.length && Arrays.equals(magic, BlockOutputStream.MAGIC))
+        {
+            return recoverBlocks(file, length);
+        }
+        if (read >= 2 && ((magic[0] & 0xFF) | ((magic[1] & 0xFF) << 8)) == GZIPInputStream.GZIP_MAGIC)
+        {
+            throw new IOException("Gzipped recording " + file + " can't be recovered in place");
+        }
+        long validLength;
+        try (InputStream in = new FileInputStream(file))
+        {
+            validLength = scanFrames(file, in, length);
+        }
+        if (validLength < 0)
+        {
+            return -1;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(validLength);
+            raf.seek(validLength);
+            raf.writeByte(RecordingFormat.END_ENTRY);
+        }
+        LOG.info("Recording {} is cut from {} to {} bytes", file, length, validLength);
+        return length - validLength;
+    }
+
+    private static long recoverBlocks(File file, long length) throws IOException
+    {
+        List<long[]> blocks = scanBlocks(file);
+        if (blocks == null)
+        {
+            return -1;
+        }
+        long[] end = blocks.get(blocks.size() - 1);
+        long validLength = 0;
+        if (end[1] > 0)
+        {
+            try (InputStream in = new BlockInputStream(
+                    new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)))
+            {
+                validLength = scanFrames(file, in, Long.MAX_VALUE);
+            }
+        }
+        if (validLength < 0)
+        {
+            return -1;
+        }
+        long[] cut = blocks.get(0);
+        for (long[] block : blocks)
+        {
+            if (block[1] <= validLength)
+            {
+                cut = block;
+            }
+        }
+        byte[] tail = new byte[(int)(validLength - cut[1]) + 1];
+        if (cut != end)
+        {
+            try (InputStream in = new FileInputStream(file))
+            {
+                IOUtils.skipFully(in, cut[0]);
+                IOUtils.readFully(new BlockInputStream(in, false), tail, 0, tail.length - 1);
+            }
+        }
+        tail[tail.length - 1] = RecordingFormat.END_ENTRY;
+        ByteArrayOutputStream terminated = new ByteArrayOutputStream(tail.length + 32);
+        BlockOutputStream.writeStoredBlock(terminated, tail, tail.length);
+        terminated.write(BlockOutputStream.END_OF_BLOCKS);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(cut[0]);
+            raf.seek(cut[0]);
+            raf.write(terminated.toByteArray());
+        }
+        LOG.info("Block compressed recording {} is cut from {} to {} bytes", file, length, cut[0]);
+        return length - cut[0];
+    }
+
+    /**
+     * @param length number of bytes available, frames claiming more are cut
+     * @return offset after the last valid frame, or -1 if records are terminated properly
+     */
+    private static long scanFrames(File file, InputStream in, long length) throws IOException
+    {
+        try (Input input = new Input(in, BUFFER_SIZE))
+        {
+            if (length == 0 || input.readByte() != RecordingFormat.FORMAT_ENTRY)
+            {
+                throw new IOException(file + " is not a recording");
+            }
+            long validLength;
+            try
+            {
+                int version = RecordingFormat.readVersion(input);
+                if (version < RecordingFormat.FRAMED_VERSION)
+                {
+                    throw new IOException("Recording format " + version + " of " + file + " has no frames");
+                }
+                RecordingFormat.readRegistry(input);
+                validLength = input.total();
+            }
+            catch (KryoException e)
+            {
+                // even the header is incomplete
+                return 0;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            CRC32 crc = new CRC32();
+            try
+            {
+                while (!input.eof())
+                {
+                    byte entryType = input.readByte();
+                    if (entryType == RecordingFormat.END_ENTRY)
+                    {
+                        return -1;
+                    }
+                    if (entryType != RecordingFormat.TAG_ENTRY && entryType != RecordingFormat.RECORD_ENTRY)
+                    {
+                        break;
+                    }
+                    int frameLength = input.readInt();
+                    int expectedCrc = input.readInt();
+                    if (frameLength < 0 || frameLength > length - input.total())
+                    {
+                        break;
+                    }
+                    crc.reset();
+                    for (int remaining = frameLength; remaining > 0;)
+                    {
+                        int chunk = Math.min(remaining, buffer.length);
+                        input.readBytes(buffer, 0, chunk);
+                        crc.update(buffer, 0, chunk);
+                        remaining -= chunk;
+                    }
+                    if ((int)crc.getValue() != expectedCrc)
+                    {
+                        break;
+                    }
+                    validLength = input.total();
+                }
+            }
+            catch (KryoException e)
+            {
+                // frame is cut by the end of the file
+            }
+            return validLength;
+        }
+    }
+
+    /**
+     * @return file offset and uncompressed offset of every block with a valid checksum followed by offsets
+     * after the last of them, or null if blocks are terminated properly
+     */
+    private static List<long[]> scanBlocks(File file) throws IOException
+    {
+        CountingInputStream counter = new CountingInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try (BlockInputStream blocks = new BlockInputStream(counter))
+        {
+            List<long[]> valid = new ArrayList<>();
+            long validLength = counter.getByteCount();
+            long uncompressed = 0;
+            try
+            {
+                while (blocks.nextBlock())
+                {
+                    valid.add(new long[] { validLength, uncompressed });
+                    uncompressed += blocks.available();
+                    validLength = counter.getByteCount();
+                }
+                if (counter.getByteCount() > validLength)
+                {
+                    // end of blocks marker is read
+                    return null;
+                }
+            }
+            catch (IOException e)
+            {
+                // block is cut by the end of the file or damaged
+            }
+            valid.add(new long[] { validLength, uncompressed });
+            return valid;
+        }
+    }
+}
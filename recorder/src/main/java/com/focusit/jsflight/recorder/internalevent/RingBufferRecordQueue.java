@@ -0,0 +1,162 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded ring buffer. Slots are preallocated, every slot has a sequence number.
+ * A producer claims a position by CAS on the tail counter, stores an element and publishes it
+ * by advancing slot's sequence, so producers never contend on a monitor.
+ * Consumer side uses the same scheme, so several threads are allowed to poll,
+ * though usually the only consumer is a storage thread.
+ * <p>
+ * Capacity is rounded up to the nearest power of two
+ */
+class RingBufferRecordQueue<E> implements RecordQueue<E>
+{
+    private static final long PUT_PARK_NANOS = 1000;
+
+    private final int mask;
+    private final AtomicReferenceArray<E> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    private final AtomicLong head = new AtomicLong(0);
+
+    RingBufferRecordQueue(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("Ring buffer capacity must be positive: " + capacity);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(E element)
+    {
+        if (element == null)
+        {
+            throw new NullPointerException();
+        }
+        while (true)
+        {
+            long position = tail.get();
+            int index = (int)(position & mask);
+            long diff = sequences.get(index) - position;
+            if (diff == 0)
+            {
+                if (tail.compareAndSet(position, position + 1))
+                {
+                    slots.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            }
+            else if (diff < 0)
+            {
+                // slot still holds an element from the previous lap
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public void put(E element) throws InterruptedException
+    {
+        while (!offer(element))
+        {
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(PUT_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(element))
+        {
+            if (Thread.interrupted())
+            {
+                throw new InterruptedException();
+            }
+            if (System.nanoTime() - deadline >= 0)
+            {
+                return false;
+            }
+            LockSupport.parkNanos(PUT_PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public E poll()
+    {
+        while (true)
+        {
+            long position = head.get();
+            int index = (int)(position & mask);
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0)
+            {
+                if (head.compareAndSet(position, position + 1))
+                {
+                    E element = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, position + mask + 1);
+                    return element;
+                }
+            }
+            else if (diff < 0)
+            {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> collection, int maxElements)
+    {
+        int count = 0;
+        E element;
+        while (count < maxElements && (element = poll()) != null)
+        {
+            collection.add(element);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public int size()
+    {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int)Math.min(size, mask + 1);
+    }
+
+    @Override
+    public int capacity()
+    {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,28 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream of a single recording file (segment).
+ * Storage thread asks a segment whether it is full and rolls over to a new file
+ * obtained from {@link InternalEventRecorderBuilder.FileStrategy} if so.
+ * Segment is only checked between records, so a record is never split between two files
+ */
+abstract class SegmentOutputStream extends OutputStream
+{
+    /**
+     * @return true if the segment has reached its preferred size
+     */
+    abstract boolean isFull();
+
+    /**
+     * @return number of bytes written to the segment
+     */
+    abstract long position();
+
+    /**
+     * Forces bytes written so far to the storage device
+     */
+    abstract void sync() throws IOException;
+}
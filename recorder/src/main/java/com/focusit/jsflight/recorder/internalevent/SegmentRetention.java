@@ -0,0 +1,108 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Housekeeping of files closed by a single storage thread: compresses them and deletes the oldest ones
+ * when there are too many of them or they take too much disk space. The file being written is never touched.
+ * <p>
+ * Files are handed over to a background executor, so the storage thread never waits for the file system.
+ * All state is confined to the executor thread
+ */
+class SegmentRetention
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentRetention.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ExecutorService executor;
+    private final int maxFiles;
+    private final long maxTotalSize;
+    private final boolean compress;
+    private final Deque<File> retained = new ArrayDeque<>();
+    private long totalSize = 0;
+
+    /**
+     * @param maxFiles max number of closed files kept, negative for no limit
+     * @param maxTotalSize max number of bytes taken by closed files, negative for no limit
+     * @param compress true to gzip closed files
+     */
+    SegmentRetention(ExecutorService executor, int maxFiles, long maxTotalSize, boolean compress)
+    {
+        this.executor = executor;
+        this.maxFiles = maxFiles;
+        this.maxTotalSize = maxTotalSize;
+        this.compress = compress;
+    }
+
+    void onSegmentClosed(File file)
+    {
+        try
+        {
+            executor.execute(() -> retain(file));
+        }
+        catch (RejectedExecutionException e)
+        {
+            LOG.warn("Recorder is shut down, {} is left as is", file);
+        }
+    }
+
+    /**
+     * Waits for housekeeping already requested
+     */
+    void shutdown() throws InterruptedException
+    {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void retain(File file)
+    {
+        File kept = compress ? compress(file) : file;
+        retained.addLast(kept);
+        totalSize += kept.length();
+        while (!retained.isEmpty() && ((maxFiles >= 0 && retained.size() > maxFiles)
+                || (maxTotalSize >= 0 && totalSize > maxTotalSize)))
+        {
+            File oldest = retained.removeFirst();
+            totalSize -= oldest.length();
+            if (!oldest.delete() && oldest.exists())
+            {
+                LOG.warn("Can't delete old recording {}", oldest);
+            }
+        }
+    }
+
+    /**
+     * @return compressed file or the original one if it can't be compressed
+     */
+    private File compress(File file)
+    {
+        File compressed = new File(file.getPath() + ".gz");
+        try (InputStream in = new FileInputStream(file);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), BUFFER_SIZE))
+        {
+            IOUtils.copyLarge(in, out, new byte[BUFFER_SIZE]);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Can't compress recording " + file, e);
+            compressed.delete();
+            return file;
+        }
+        if (!file.delete())
+        {
+            LOG.warn("Can't delete compressed recording {}", file);
+        }
+        return compressed;
+    }
+}
@@ -0,0 +1,209 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batches of {@link NetworkSink} waiting on disk while the collector is unreachable or slower than the recorder.
+ * Storage thread appends batches, sender thread takes them in the same order and removes them once they are
+ * acknowledged. The file is emptied as soon as every batch is removed.
+ * <p>
+ * Batches left in the file when the recorder stops are sent by the next run: an existing file is reopened
+ * and cut after its last complete batch. Batches removed since the file was last emptied are sent again,
+ * the collector skips them by their sequence numbers
+ */
+class SinkSpool implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SinkSpool.class);
+    private static final int BATCH_HEADER_LENGTH = 12;
+
+    private final File file;
+    private final byte[] header = new byte[BATCH_HEADER_LENGTH];
+    private RandomAccessFile raf;
+    private long readPosition = 0;
+    private long writePosition = 0;
+    private long lastSequence = 0;
+
+    SinkSpool(File file)
+    {
+        this.file = file;
+        if (file.length() == 0)
+        {
+            return;
+        }
+        try
+        {
+            raf = new RandomAccessFile(file, "rw");
+            long length = raf.length();
+            while (writePosition + BATCH_HEADER_LENGTH <= length)
+            {
+                raf.seek(writePosition);
+                long sequence = raf.readLong();
+                int batchLength = raf.readInt();
+                if (batchLength < 0 || writePosition + BATCH_HEADER_LENGTH + batchLength > length)
+                {
+                    break;
+                }
+                writePosition += BATCH_HEADER_LENGTH + batchLength;
+                lastSequence = sequence;
+            }
+            raf.setLength(writePosition);
+            LOG.info("Batches up to {} are left in {} by the previous run", lastSequence, file);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Can't read batches left in " + file + ", they are not sent", e);
+            IOUtils.closeQuietly(raf);
+            raf = null;
+            writePosition = 0;
+            lastSequence = 0;
+            file.delete();
+        }
+    }
+
+    synchronized boolean isEmpty()
+    {
+        return readPosition == writePosition;
+    }
+
+    /**
+     * @return sequence number of the newest batch in the file, 0 if there is none
+     */
+    synchronized long getLastSequence()
+    {
+        return lastSequence;
+    }
+
+    synchronized void append(NetworkSink.Batch batch) throws IOException
+    {
+        if (raf == null)
+        {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        raf.seek(writePosition);
+        write(raf, batch);
+        writePosition += BATCH_HEADER_LENGTH + batch.bytes.length;
+        lastSequence = batch.sequence;
+    }
+
+    /**
+     * Puts batches older than the ones in the file in front of them
+     */
+    synchronized void prepend(List<NetworkSink.Batch> batches) throws IOException
+    {
+        if (batches.isEmpty() && readPosition == 0)
+        {
+            return;
+        }
+        File rewritten = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(rewritten, "rw"))
+        {
+            out.setLength(0);
+            for (NetworkSink.Batch batch : batches)
+            {
+                write(out, batch);
+            }
+            byte[] buffer = new byte[64 * 1024];
+            for (long position = readPosition; position < writePosition;)
+            {
+                raf.seek(position);
+                int chunk = (int)Math.min(buffer.length, writePosition - position);
+                raf.readFully(buffer, 0, chunk);
+                out.write(buffer, 0, chunk);
+                position += chunk;
+            }
+            out.getFD().sync();
+        }
+        if (raf != null)
+        {
+            raf.close();
+        }
+        Files.move(rewritten.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        raf = new RandomAccessFile(file, "rw");
+        readPosition = 0;
+        writePosition = raf.length();
+        if (!batches.isEmpty())
+        {
+            lastSequence = Math.max(lastSequence, batches.get(batches.size() - 1).sequence);
+        }
+    }
+
+    /**
+     * @return the oldest batch or null if the spool is empty
+     */
+    synchronized NetworkSink.Batch peek() throws IOException
+    {
+        if (isEmpty())
+        {
+            return null;
+        }
+        raf.seek(readPosition);
+        long sequence = raf.readLong();
+        byte[] bytes = new byte[raf.readInt()];
+        raf.readFully(bytes);
+        return new NetworkSink.Batch(sequence, bytes, true);
+    }
+
+    /**
+     * Removes the oldest batch returned by {@link #peek()}
+     */
+    synchronized void remove(NetworkSink.Batch batch) throws IOException
+    {
+        readPosition += BATCH_HEADER_LENGTH + batch.bytes.length;
+        if (isEmpty())
+        {
+            raf.setLength(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+    }
+
+    /**
+     * Closes the file. It is deleted only if every batch is removed, otherwise removed batches are cut off
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (raf != null)
+        {
+            boolean empty = isEmpty();
+            if (!empty)
+            {
+                prepend(Collections.emptyList());
+            }
+            raf.close();
+            raf = null;
+            readPosition = 0;
+            writePosition = 0;
+            if (empty)
+            {
+                file.delete();
+            }
+        }
+    }
+
+    private void write(RandomAccessFile out, NetworkSink.Batch batch) throws IOException
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            header[i] = (byte)(batch.sequence >>> (56 - i * 8));
+        }
+        for (int i = 0; i < 4; i++)
+        {
+            header[8 + i] = (byte)(batch.bytes.length >>> (24 - i * 8));
+        }
+        out.write(header);
+        out.write(batch.bytes);
+    }
+}
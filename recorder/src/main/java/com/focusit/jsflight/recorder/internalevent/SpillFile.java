@@ -0,0 +1,111 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.FastInput;
+import com.esotericsoftware.kryo.io.FastOutput;
+
+/**
+ * Temporary on-disk buffer for records that didn't fit into the queue.
+ * Pushing threads append records, the storage thread takes whole spill files back
+ * when the queue is drained and replays them to the recording.
+ * <p>
+ * Spilled records are stored after the records queued while they were waiting, so they arrive out of id order.
+ * The storage thread flushes appended records to the file on every drain of the queue, records appended since
+ * the last drain are lost on crash
+ */
+class SpillFile
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SpillFile.class);
+
+    private final String basePath;
+    private final Kryo kryo = RecordingFormat.newKryo();
+    private FastOutput output;
+    private File current;
+    private int counter = 0;
+    private volatile int pending = 0;
+
+    SpillFile(String basePath)
+    {
+        this.basePath = basePath;
+    }
+
+    /**
+     * Called by pushing threads. Appends are serialized by the spill file's monitor
+     */
+    synchronized void append(InternalEventRecorder.InternalEventRecord record) throws FileNotFoundException
+    {
+        if (output == null)
+        {
+            current = new File(basePath + ".spill" + counter++);
+            output = new FastOutput(new FileOutputStream(current));
+        }
+        kryo.writeObject(output, record);
+        pending++;
+    }
+
+    /**
+     * Called by the storage thread on every drain of the queue
+     */
+    synchronized void flush()
+    {
+        if (output != null)
+        {
+            output.flush();
+        }
+    }
+
+    boolean hasPending()
+    {
+        return pending > 0;
+    }
+
+    /**
+     * Called by the storage thread. Closes current spill file, so pushing threads start a new one,
+     * then reads spilled records back in the order they were spilled. Spill file is deleted afterwards
+     */
+    void replay(Consumer<InternalEventRecorder.InternalEventRecord> consumer) throws IOException
+    {
+        File spilled = takeCurrent();
+        if (spilled == null)
+        {
+            return;
+        }
+        Kryo reader = RecordingFormat.newKryo();
+        try (FastInput input = new FastInput(new FileInputStream(spilled)))
+        {
+            while (input.available() > 0)
+            {
+                consumer.accept(reader.readObject(input, InternalEventRecorder.InternalEventRecord.class));
+            }
+        }
+        finally
+        {
+            if (!spilled.delete())
+            {
+                LOG.warn("Can't delete spill file {}", spilled.getAbsolutePath());
+            }
+        }
+    }
+
+    private synchronized File takeCurrent()
+    {
+        if (output == null)
+        {
+            return null;
+        }
+        output.close();
+        output = null;
+        pending = 0;
+        return current;
+    }
+}
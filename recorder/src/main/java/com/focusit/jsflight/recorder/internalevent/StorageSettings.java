@@ -0,0 +1,23 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Settings shared by all storage threads of a recorder. Prepared by {@link InternalEventRecorderBuilder}
+ */
+class StorageSettings
+{
+    int maxElementsBeforeFlush;
+    int maxBatchSize;
+    long maxFlushDelayNs;
+    boolean storeInGzip;
+    BlockCompression blockCompression;
+    int blockSize;
+    int indexInterval;
+    long maxSegmentSize;
+    long maxSegmentAgeMs;
+    String networkHost;
+    int networkPort;
+    String networkNode;
+    InternalEventRecorderBuilder.FsyncPolicy fsyncPolicy;
+    long fsyncIntervalNs;
+    InternalEventRecorderBuilder.OutputStrategy outputStrategy;
+}
@@ -0,0 +1,32 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Queue and output files of a single storage thread
+ */
+class StorageShard
+{
+    final String threadName;
+    /**
+     * Number of the tag route the shard stores, 0 for records with tags that aren't routed
+     */
+    final int route;
+    final StorageSettings settings;
+    final RecordQueue<InternalEventRecorder.InternalEventRecord> queue;
+    final InternalEventRecorderBuilder.FileStrategy fileStrategy;
+    /**
+     * Housekeeping of closed files or null if they are kept as is
+     */
+    final SegmentRetention retention;
+
+    StorageShard(String threadName, int route, StorageSettings settings,
+            RecordQueue<InternalEventRecorder.InternalEventRecord> queue,
+            InternalEventRecorderBuilder.FileStrategy fileStrategy, SegmentRetention retention)
+    {
+        this.threadName = threadName;
+        this.route = route;
+        this.settings = settings;
+        this.queue = queue;
+        this.fileStrategy = fileStrategy;
+        this.retention = retention;
+    }
+}
@@ -0,0 +1,68 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Maps record tags to small integer ids. Tags are registered once and stored in records and files by id only
+ */
+class TagRegistry
+{
+    static final int MAX_TAG_LENGTH = 64;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final List<String> names = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return id of the tag. Tag is trimmed and cut to {@link #MAX_TAG_LENGTH} chars
+     */
+    int register(String tag)
+    {
+        // only normalized names are keys, so differently spelled tags don't grow the map
+        String name = normalize(tag);
+        Integer id = ids.get(name);
+        if (id != null)
+        {
+            return id;
+        }
+        return registerNew(name);
+    }
+
+    String getName(int id)
+    {
+        return names.get(id);
+    }
+
+    int size()
+    {
+        return names.size();
+    }
+
+    /**
+     * @return tag trimmed and cut to {@link #MAX_TAG_LENGTH} chars
+     */
+    static String normalize(String tag)
+    {
+        String name = tag.trim();
+        return name.length() > MAX_TAG_LENGTH ? name.substring(0, MAX_TAG_LENGTH) : name;
+    }
+
+    boolean isRegistered(int id)
+    {
+        return id >= 0 && id < names.size();
+    }
+
+    private synchronized int registerNew(String name)
+    {
+        Integer id = ids.get(name);
+        if (id == null)
+        {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+}
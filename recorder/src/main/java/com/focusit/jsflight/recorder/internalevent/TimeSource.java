@@ -0,0 +1,28 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Source of record timestamps.
+ * {@link InternalEventRecorder} takes {@link #nanoTime()} once per record and derives epoch time from it,
+ * so both timestamps of a record describe the same moment.
+ * Standard implementations are created by {@link TimeSources}
+ */
+public interface TimeSource
+{
+    /**
+     * @return monotonic time in nanoseconds, comparable with System.nanoTime()
+     */
+    long nanoTime();
+
+    /**
+     * @return epoch time in milliseconds that corresponds to nanoTime obtained from {@link #nanoTime()}
+     */
+    long toEpochMillis(long nanoTime);
+
+    default void start()
+    {
+    }
+
+    default void stop() throws InterruptedException
+    {
+    }
+}
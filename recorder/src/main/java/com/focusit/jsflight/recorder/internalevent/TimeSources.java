@@ -0,0 +1,37 @@
+package com.focusit.jsflight.recorder.internalevent;
+
+/**
+ * Factory of standard {@link TimeSource} implementations
+ */
+public final class TimeSources
+{
+    private TimeSources()
+    {
+    }
+
+    /**
+     * Reads System.nanoTime() on every call. Precise, epoch time is read from System.currentTimeMillis()
+     */
+    public static TimeSource direct()
+    {
+        return new DirectTimeSource();
+    }
+
+    /**
+     * Background thread publishes both clocks every intervalMs milliseconds, so reading time is just a volatile read.
+     * Timestamps are as precise as the interval. Interval &lt;= 0 makes the thread spin
+     */
+    public static TimeSource cached(long intervalMs)
+    {
+        return new CachedTimeSource(intervalMs);
+    }
+
+    /**
+     * Reads System.nanoTime() on every call and converts it to epoch time
+     * with an offset recalibrated every recalibrationIntervalMs milliseconds
+     */
+    public static TimeSource hybrid(long recalibrationIntervalMs)
+    {
+        return new HybridTimeSource(recalibrationIntervalMs);
+    }
+}
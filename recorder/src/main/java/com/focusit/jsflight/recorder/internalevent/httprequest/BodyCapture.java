@@ -0,0 +1,160 @@
+package com.focusit.jsflight.recorder.internalevent.httprequest;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Copy of a request body read by the application.
+ * Keeps no more than maxSize bytes, the rest is only counted.
+ * Bytes above spillThreshold go to a temporary file, so a slow large upload doesn't hold a growing array
+ * for the whole request
+ */
+class BodyCapture
+{
+    private final int maxSize;
+    private final int spillThreshold;
+    private byte[] buffer;
+    private int count = 0;
+    private long size = 0;
+    private File spillFile;
+    private OutputStream spill;
+
+    BodyCapture(int maxSize, int spillThreshold, int expectedLength)
+    {
+        this.maxSize = maxSize;
+        this.spillThreshold = spillThreshold;
+        int initial = expectedLength >= 0 ? expectedLength : 1024;
+        this.buffer = new byte[Math.min(initial, Math.min(maxSize, spillThreshold))];
+    }
+
+    void write(int b) throws IOException
+    {
+        if (size++ >= maxSize)
+        {
+            return;
+        }
+        if (spill == null)
+        {
+            ensureCapacity(1);
+        }
+        if (spill != null)
+        {
+            spill.write(b);
+            return;
+        }
+        buffer[count++] = (byte)b;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException
+    {
+        int captured = (int)Math.min(len, Math.max(0, maxSize - size));
+        size += len;
+        if (captured == 0)
+        {
+            return;
+        }
+        if (spill == null)
+        {
+            ensureCapacity(captured);
+        }
+        if (spill != null)
+        {
+            spill.write(b, off, captured);
+            return;
+        }
+        System.arraycopy(b, off, buffer, count, captured);
+        count += captured;
+    }
+
+    /**
+     * @return number of body bytes read by the application, including ones not captured
+     */
+    long getSize()
+    {
+        return size;
+    }
+
+    boolean isTruncated()
+    {
+        return size > maxSize;
+    }
+
+    /**
+     * @return captured bytes. A spilled body is read back into memory and its file is deleted
+     */
+    byte[] toByteArray() throws IOException
+    {
+        if (spill != null)
+        {
+            try
+            {
+                spill.close();
+                buffer = Files.readAllBytes(spillFile.toPath());
+                count = buffer.length;
+            }
+            finally
+            {
+                release();
+            }
+        }
+        return count == buffer.length ? buffer : Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Drops everything captured and counted so far
+     */
+    void reset()
+    {
+        release();
+        count = 0;
+        size = 0;
+    }
+
+    /**
+     * Deletes the spill file if any. Bytes captured in memory stay available
+     */
+    void release()
+    {
+        if (spill != null)
+        {
+            try
+            {
+                spill.close();
+            }
+            catch (IOException e)
+            {
+                // file is deleted anyway
+            }
+            spillFile.delete();
+            spillFile = null;
+            spill = null;
+            if (buffer == null)
+            {
+                buffer = new byte[0];
+                count = 0;
+            }
+        }
+    }
+
+    private void ensureCapacity(int length) throws IOException
+    {
+        if (count + length <= buffer.length)
+        {
+            return;
+        }
+        if (count + length > spillThreshold)
+        {
+            spillFile = File.createTempFile("jsflight-body", ".tmp");
+            spill = new BufferedOutputStream(new FileOutputStream(spillFile));
+            spill.write(buffer, 0, count);
+            buffer = null;
+            return;
+        }
+        buffer = Arrays.copyOf(buffer, Math.min(spillThreshold, Math.max(buffer.length * 2, count + length)));
+    }
+}
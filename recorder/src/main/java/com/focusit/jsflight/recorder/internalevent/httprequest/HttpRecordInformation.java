@@ -4,7 +4,41 @@ import java.util.HashMap;
 
 public class HttpRecordInformation
 {
+    /**
+     * Key of {@link #additional} holding the full body size if {@link #payload} is truncated
+     */
+    public static final String PAYLOAD_TRUNCATED = "payloadTruncated";
+    /**
+     * Key of {@link #additional} holding the number of requests a sampled record stands for, if it is more than 1
+     */
+    public static final String SAMPLE_WEIGHT = "sampleWeight";
+    /**
+     * Key of {@link #additional} holding the number of requests the filter has not recorded because of its sampler
+     * so far, if there are any. Total number of requests is this value of the last record plus the records
+     */
+    public static final String SAMPLED_OUT = "sampledOut";
+    /**
+     * Keys of {@link #additional} set if async processing of the request timed out or failed
+     */
+    public static final String ASYNC_TIMEOUT = "asyncTimeout";
+    public static final String ASYNC_ERROR = "asyncError";
+
     public byte[] params;
     public byte[] payload;
     public HashMap<String, String> additional = new HashMap<>();
+    /**
+     * Recorder wall time when the filter got the request and when the application completed it
+     */
+    public long requestStartNs;
+    public long requestEndNs;
+    public int status;
+    /**
+     * Number of response body bytes written by the application
+     */
+    public long responseSize;
+    public HashMap<String, String> responseHeaders;
+    /**
+     * Beginning of the response body, null unless the filter captures responses
+     */
+    public byte[] responseBody;
 }
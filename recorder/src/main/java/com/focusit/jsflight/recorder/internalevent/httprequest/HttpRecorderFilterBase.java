@@ -2,6 +2,7 @@ package com.focusit.jsflight.recorder.internalevent.httprequest;
 
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
@@ -13,15 +14,35 @@ import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder;
 public abstract class HttpRecorderFilterBase implements Filter
 {
     public static final String ALREADY_FILTERED_SUFFIX = ".FILTERED";
+    public static final String RECORD_IN_PROGRESS_SUFFIX = ".RECORD";
     private final AtomicBoolean ENABLED = new AtomicBoolean(false);
 
     private InternalEventRecorder internalEventRecorder;
+    private int httpRecorderTagId;
+    private volatile RequestSampler sampler = RequestSamplers.all();
+    private final AtomicLong sampledOut = new AtomicLong();
 
     protected InternalEventRecorder getRecorder()
     {
         return internalEventRecorder;
     }
 
+    /**
+     * Sets policy choosing requests to record. Every request is recorded by default
+     */
+    public void setSampler(RequestSampler sampler)
+    {
+        this.sampler = sampler;
+    }
+
+    /**
+     * @return number of requests not recorded because of the sampler
+     */
+    public long getSampledOutRequests()
+    {
+        return sampledOut.get();
+    }
+
     public void setEnabled(boolean enabled)
     {
         if (!ENABLED.getAndSet(enabled) && enabled)
@@ -55,10 +76,19 @@ public abstract class HttpRecorderFilterBase implements Filter
         HttpServletRequest httpRequest = (HttpServletRequest)request;
         HttpServletResponse httpResponse = (HttpServletResponse)response;
 
+        Object inProgress = request.getAttribute(getRecordInProgressAttributeName());
+        if (request.getDispatcherType() == DispatcherType.ASYNC && inProgress instanceof RecordInProgress)
+        {
+            // async dispatch of a request being recorded goes on with the same wrappers
+            RecordInProgress record = (RecordInProgress)inProgress;
+            filterChain.doFilter(record.request != null ? record.request : request, record.response);
+            return;
+        }
+
         String alreadyFilteredAttributeName = getAlreadyFilteredAttributeName();
         boolean hasAlreadyFilteredAttribute = request.getAttribute(alreadyFilteredAttributeName) != null;
 
-        if (hasAlreadyFilteredAttribute || skipDispatch() || doNotRecordRequest(httpRequest, httpResponse))
+        if (hasAlreadyFilteredAttribute || skipDispatch(httpRequest) || doNotRecordRequest(httpRequest, httpResponse))
         {
 
             // Proceed without invoking this filter...
@@ -95,33 +125,55 @@ public abstract class HttpRecorderFilterBase implements Filter
             return;
         }
 
+        long weight = sampler.sample(request);
+        if (weight <= 0)
+        {
+            sampledOut.incrementAndGet();
+            chain.doFilter(request, response);
+            return;
+        }
+
         HttpRecordInformation info = new HttpRecordInformation();
+        if (weight > 1)
+        {
+            info.additional.put(HttpRecordInformation.SAMPLE_WEIGHT, Long.toString(weight));
+        }
+        long skipped = sampledOut.get();
+        if (skipped > 0)
+        {
+            info.additional.put(HttpRecordInformation.SAMPLED_OUT, Long.toString(skipped));
+        }
+        info.requestStartNs = internalEventRecorder.getWallTime();
         RecordableHttpServletRequest requestForRecord = null;
+        RecordableHttpServletResponse responseForRecord = new RecordableHttpServletResponse(response,
+                getMaxCapturedResponseBodySize(), getBodySpillThreshold());
         try
         {
             try
             {
                 prepareHttpRecordInfo(info, request, response);
-                requestForRecord = HttpRecorderHelper.prepareRequestToRecord(request, info);
+                requestForRecord = HttpRecorderHelper.prepareRequestToRecord(request, info,
+                        getMaxCapturedBodySize(), getBodySpillThreshold());
             }
             catch (Exception e)
             {
                 logException(e);
             }
-            chain.doFilter(requestForRecord, response);
+            chain.doFilter(requestForRecord != null ? requestForRecord : request, responseForRecord);
 
         }
         finally
         {
-            try
+            RecordInProgress record = new RecordInProgress(info, requestForRecord, responseForRecord);
+            if (request.isAsyncStarted())
             {
-                updateHttpRecordInfo(info, requestForRecord, response);
-                info.payload = requestForRecord.getPayloadBytes();
-                internalEventRecorder.push(HttpRecorderHelper.HTTP_RECORDER_TAG, info);
+                // the request is not processed yet, it is recorded when the async processing completes
+                request.setAttribute(getRecordInProgressAttributeName(), record);
+                request.getAsyncContext().addListener(record);
             }
-            catch (InterruptedException e)
+            else
             {
-                logException(e);
+                record.complete();
             }
         }
     }
@@ -140,6 +192,30 @@ public abstract class HttpRecorderFilterBase implements Filter
 
     protected abstract boolean doNotRecordRequest(HttpServletRequest request, HttpServletResponse response);
 
+    /**
+     * Max number of request body bytes to record. The rest of a body is passed to the application, but not recorded
+     */
+    protected int getMaxCapturedBodySize()
+    {
+        return RecordableHttpServletRequest.DEFAULT_MAX_BODY_SIZE;
+    }
+
+    /**
+     * Recorded body above this size is kept in a temporary file until the request is completed
+     */
+    protected int getBodySpillThreshold()
+    {
+        return RecordableHttpServletRequest.DEFAULT_SPILL_THRESHOLD;
+    }
+
+    /**
+     * Max number of response body bytes to record. Responses are only measured by default
+     */
+    protected int getMaxCapturedResponseBodySize()
+    {
+        return 0;
+    }
+
     protected String getAlreadyFilteredAttributeName()
     {
         String name = "HttpRecorderHelper";
@@ -161,15 +237,24 @@ public abstract class HttpRecorderFilterBase implements Filter
             builder.storageThreadName(storageThreadName);
         }
         internalEventRecorder = builder.build();
+        httpRecorderTagId = internalEventRecorder.registerTag(HttpRecorderHelper.HTTP_RECORDER_TAG);
         if (ENABLED.get())
         {
             internalEventRecorder.openFileForWriting();
         }
     }
 
+    protected String getRecordInProgressAttributeName()
+    {
+        return "HttpRecorderHelper" + RECORD_IN_PROGRESS_SUFFIX;
+    }
+
+    /**
+     * Async requests are recorded once, when the async processing completes, so async dispatches are skipped
+     */
     protected boolean shouldNotFilterAsyncDispatch()
     {
-        return false;
+        return true;
     }
 
     protected boolean shouldNotFilterErrorDispatch()
@@ -177,8 +262,97 @@ public abstract class HttpRecorderFilterBase implements Filter
         return false;
     }
 
-    private boolean skipDispatch()
+    private boolean skipDispatch(HttpServletRequest request)
     {
-        return shouldNotFilterErrorDispatch();
+        DispatcherType type = request.getDispatcherType();
+        return (type == DispatcherType.ASYNC && shouldNotFilterAsyncDispatch())
+                || (type == DispatcherType.ERROR && shouldNotFilterErrorDispatch());
+    }
+
+    /**
+     * Request being recorded. Completed either right after the filter chain
+     * or by the container when the async processing of the request is over
+     */
+    private class RecordInProgress implements AsyncListener
+    {
+        private final HttpRecordInformation info;
+        private final RecordableHttpServletRequest request;
+        private final RecordableHttpServletResponse response;
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        private RecordInProgress(HttpRecordInformation info, RecordableHttpServletRequest request,
+                RecordableHttpServletResponse response)
+        {
+            this.info = info;
+            this.request = request;
+            this.response = response;
+        }
+
+        private void complete()
+        {
+            if (completed.getAndSet(true))
+            {
+                return;
+            }
+            try
+            {
+                info.requestEndNs = internalEventRecorder.getWallTime();
+                info.responseSize = response.getBodySize();
+                info.status = response.getStatus();
+                info.responseHeaders = response.getHeaders();
+                info.responseBody = response.getBodyBytes();
+                updateHttpRecordInfo(info, request, response);
+                if (request != null)
+                {
+                    info.payload = request.getPayloadBytes();
+                    if (request.isPayloadTruncated())
+                    {
+                        info.additional.put(HttpRecordInformation.PAYLOAD_TRUNCATED,
+                                Long.toString(request.getPayloadSize()));
+                    }
+                }
+                internalEventRecorder.push(httpRecorderTagId, info);
+            }
+            catch (InterruptedException | IOException e)
+            {
+                logException(e);
+            }
+            finally
+            {
+                if (request != null)
+                {
+                    request.release();
+                }
+                response.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            complete();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            info.additional.put(HttpRecordInformation.ASYNC_TIMEOUT, Boolean.TRUE.toString());
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            if (event.getThrowable() != null)
+            {
+                info.additional.put(HttpRecordInformation.ASYNC_ERROR, event.getThrowable().toString());
+            }
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            // listeners are dropped when async processing is restarted by an async dispatch
+            event.getAsyncContext().addListener(this);
+        }
     }
 }
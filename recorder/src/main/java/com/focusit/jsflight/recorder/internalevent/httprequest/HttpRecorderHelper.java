@@ -1,8 +1,9 @@
 package com.focusit.jsflight.recorder.internalevent.httprequest;
 
-import java.io.ByteArrayOutputStream;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.Cookie;
@@ -15,30 +16,30 @@ import com.esotericsoftware.kryo.serializers.MapSerializer;
 public class HttpRecorderHelper
 {
     public static final String HTTP_RECORDER_TAG = "HTTPREQUEST";
-    private static ThreadLocal<Kryo> threadKryo = new ThreadLocal<>();
+    private static ThreadLocal<CaptureBuffers> threadBuffers = ThreadLocal.withInitial(CaptureBuffers::new);
 
     public static RecordableHttpServletRequest prepareRequestToRecord(HttpServletRequest original,
             HttpRecordInformation info)
     {
-        // buffer is 1kb at least
-        ByteArrayOutputStream stream = new ByteArrayOutputStream(1024 * 1024);
+        return prepareRequestToRecord(original, info, RecordableHttpServletRequest.DEFAULT_MAX_BODY_SIZE,
+                RecordableHttpServletRequest.DEFAULT_SPILL_THRESHOLD);
+    }
 
-        FastOutput out = new FastOutput(stream);
-        Kryo kryo = threadKryo.get();
-        if (kryo == null)
-        {
-            kryo = new Kryo();
-            kryo.register(HashMap.class, new MapSerializer());
-            kryo.register(ConcurrentHashMap.class, new MapSerializer());
-            threadKryo.set(kryo);
-        }
-        HashMap<String, String[]> item = new HashMap<>();
-        if (original.getParameterMap() != null)
-        {
-            item.putAll(original.getParameterMap());
-        }
+    /**
+     * @param maxBodySize max number of body bytes to record
+     * @param spillThreshold body size above which captured body is kept in a temporary file
+     */
+    public static RecordableHttpServletRequest prepareRequestToRecord(HttpServletRequest original,
+            HttpRecordInformation info, int maxBodySize, int spillThreshold)
+    {
+        CaptureBuffers buffers = threadBuffers.get();
+        Kryo kryo = buffers.kryo;
+        FastOutput out = buffers.output;
+        out.clear();
+
+        Map<String, String[]> parameters = original.getParameterMap();
 
-        HashMap<String, String> headers = new HashMap<>();
+        HashMap<String, String> headers = buffers.headers;
         Enumeration<String> names = original.getHeaderNames();
         while (names.hasMoreElements())
         {
@@ -47,7 +48,8 @@ public class HttpRecorderHelper
         }
         try
         {
-            kryo.writeObject(out, item);
+            // parameter map is written as is, reader gets it back as a HashMap
+            kryo.writeObject(out, parameters != null ? parameters : Collections.emptyMap(), buffers.mapSerializer);
 
             kryo.writeObject(out, headers);
 
@@ -60,7 +62,7 @@ public class HttpRecorderHelper
             kryo.writeObjectOrNull(out, original.getMethod(), String.class);
             kryo.writeObjectOrNull(out, original.getServletContext().getContextPath(), String.class);
 
-            HashMap<String, String> cookies = new HashMap<>();
+            HashMap<String, String> cookies = buffers.cookies;
             if (original.getCookies() != null && original.getCookies().length > 0)
             {
                 for (Cookie cookie : original.getCookies())
@@ -70,17 +72,57 @@ public class HttpRecorderHelper
             }
 
             kryo.writeObject(out, cookies);
-            out.flush();
-            out.close();
 
+            info.params = out.toBytes();
         }
         catch (Exception e)
         {
             e.printStackTrace(System.err);
             throw e;
         }
+        finally
+        {
+            buffers.release();
+        }
+
+        return new RecordableHttpServletRequest(original, maxBodySize, spillThreshold);
+    }
+
+    /**
+     * Per thread serialization state reused by every captured request, so the only allocation
+     * left is the final copy of serialized parameters
+     */
+    private static class CaptureBuffers
+    {
+        private static final int MIN_BUFFER_SIZE = 4096;
+
+        private final Kryo kryo = new Kryo();
+        private final MapSerializer mapSerializer = new MapSerializer();
+        private final HashMap<String, String> headers = new HashMap<>();
+        private final HashMap<String, String> cookies = new HashMap<>();
+        private final FastOutput output = new FastOutput(MIN_BUFFER_SIZE, -1);
+        private int averageSize = MIN_BUFFER_SIZE / 4;
+
+        private CaptureBuffers()
+        {
+            kryo.register(HashMap.class, mapSerializer);
+            kryo.register(ConcurrentHashMap.class, mapSerializer);
+        }
 
-        info.params = stream.toByteArray();
-        return new RecordableHttpServletRequest(original);
+        /**
+         * Buffer grows up to the largest request seen. Once it is far above the usual size,
+         * it is shrunk back, so an occasional huge request doesn't stay pinned by the thread
+         */
+        private void release()
+        {
+            headers.clear();
+            cookies.clear();
+            averageSize += (output.position() - averageSize) / 8;
+            int preferredSize = Math.max(MIN_BUFFER_SIZE, averageSize * 2);
+            if (output.getBuffer().length > preferredSize * 4)
+            {
+                output.setBuffer(new byte[preferredSize], -1);
+            }
+        }
     }
 }
@@ -1,7 +1,6 @@
 package com.focusit.jsflight.recorder.internalevent.httprequest;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 
@@ -12,15 +11,28 @@ import javax.servlet.http.HttpServletRequestWrapper;
 
 public class RecordableHttpServletRequest extends HttpServletRequestWrapper
 {
-    private final ByteArrayOutputStream payload;
+    /**
+     * Body bytes kept by default. The rest of a body is counted, but not recorded
+     */
+    public static final int DEFAULT_MAX_BODY_SIZE = 8 * 1024 * 1024;
+    /**
+     * Captured body above this size is moved from memory to a temporary file
+     */
+    public static final int DEFAULT_SPILL_THRESHOLD = 256 * 1024;
+
+    private final BodyCapture payload;
     private ServletInputStream inputStream;
     private BufferedReader reader;
 
     public RecordableHttpServletRequest(HttpServletRequest request)
+    {
+        this(request, DEFAULT_MAX_BODY_SIZE, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    public RecordableHttpServletRequest(HttpServletRequest request, int maxBodySize, int spillThreshold)
     {
         super(request);
-        int contentLength = request.getContentLength();
-        this.payload = new ByteArrayOutputStream(contentLength >= 0 ? contentLength : 1024);
+        this.payload = new BodyCapture(maxBodySize, spillThreshold, request.getContentLength());
     }
 
     @Override
@@ -33,23 +45,50 @@ public class RecordableHttpServletRequest extends HttpServletRequestWrapper
         return this.inputStream;
     }
 
-    public byte[] getPayloadBytes()
+    /**
+     * @return captured body. A body spilled to a temporary file is read back and the file is deleted
+     */
+    public byte[] getPayloadBytes() throws IOException
     {
         return payload.toByteArray();
     }
 
+    /**
+     * Deletes the temporary file of a spilled body, if any
+     */
+    public void release()
+    {
+        payload.release();
+    }
+
+    /**
+     * @return number of body bytes read by the application, it is more than captured if the body is truncated
+     */
+    public long getPayloadSize()
+    {
+        return payload.getSize();
+    }
+
+    public boolean isPayloadTruncated()
+    {
+        return payload.isTruncated();
+    }
+
     @Override
     public BufferedReader getReader() throws IOException
     {
         if (this.reader == null)
         {
-            this.reader = new BufferedReader(new InputStreamReader(getInputStream(), getCharacterEncoding()));
+            // ISO-8859-1 is the servlet spec default
+            String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : "ISO-8859-1";
+            this.reader = new BufferedReader(new InputStreamReader(getInputStream(), encoding));
         }
         return this.reader;
     }
 
     private class RecordableRequestInputStream extends ServletInputStream
     {
+        private static final int SKIP_BUFFER_SIZE = 4096;
 
         private final ServletInputStream is;
 
@@ -81,6 +120,64 @@ public class RecordableHttpServletRequest extends HttpServletRequestWrapper
             return ch;
         }
 
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int count = this.is.read(b, off, len);
+            if (count > 0)
+            {
+                payload.write(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public int readLine(byte[] b, int off, int len) throws IOException
+        {
+            int count = this.is.readLine(b, off, len);
+            if (count > 0)
+            {
+                payload.write(b, off, count);
+            }
+            return count;
+        }
+
+        /**
+         * Skipped bytes are still part of the body, so they are read and captured
+         */
+        @Override
+        public long skip(long n) throws IOException
+        {
+            if (n <= 0)
+            {
+                return 0;
+            }
+            byte[] buffer = new byte[(int)Math.min(n, SKIP_BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n)
+            {
+                int count = read(buffer, 0, (int)Math.min(n - skipped, buffer.length));
+                if (count <= 0)
+                {
+                    break;
+                }
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException
+        {
+            return is.available();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            is.close();
+        }
+
         @Override
         public void setReadListener(ReadListener readListener)
         {
@@ -0,0 +1,339 @@
+package com.focusit.jsflight.recorder.internalevent.httprequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Counts response body bytes written by the application and optionally captures the first maxBodySize of them.
+ * Text written by the writer goes to the writer of the wrapped response and is counted in chars.
+ * Status and headers are taken from the wrapped response when the record is completed.
+ * Like a container response, it gives out either the writer or the output stream, and reset of the buffer
+ * resets the recorded body as well
+ */
+public class RecordableHttpServletResponse extends HttpServletResponseWrapper
+{
+    private final BodyCapture body;
+    private final int maxBodySize;
+    private long bodySize = 0;
+    private RecordableResponseOutputStream outputStream;
+    private RecordableWriter writer;
+    private boolean usingOutputStream = false;
+
+    /**
+     * @param maxBodySize max number of body bytes to capture, 0 to count bytes only
+     */
+    public RecordableHttpServletResponse(HttpServletResponse response, int maxBodySize, int spillThreshold)
+    {
+        super(response);
+        this.maxBodySize = maxBodySize;
+        this.body = maxBodySize > 0 ? new BodyCapture(maxBodySize, spillThreshold, -1) : null;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException
+    {
+        if (this.writer != null)
+        {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+        usingOutputStream = true;
+        return recordableStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException
+    {
+        if (usingOutputStream)
+        {
+            throw new IllegalStateException("getOutputStream() has already been called for this response");
+        }
+        if (this.writer == null)
+        {
+            this.writer = new RecordableWriter(getResponse().getWriter(), getCharacterEncoding());
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        this.outputStream = null;
+        this.writer = null;
+        this.usingOutputStream = false;
+        resetBody();
+    }
+
+    @Override
+    public void resetBuffer()
+    {
+        super.resetBuffer();
+        resetBody();
+    }
+
+    /**
+     * @return number of body bytes written by the application, or chars if it has used the writer
+     */
+    public long getBodySize()
+    {
+        return bodySize;
+    }
+
+    /**
+     * @return captured body or null if body capture is disabled
+     */
+    public byte[] getBodyBytes() throws IOException
+    {
+        if (body == null)
+        {
+            return null;
+        }
+        if (writer != null)
+        {
+            writer.flushCapture();
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Deletes the temporary file of a spilled body, if any
+     */
+    public void release()
+    {
+        if (body != null)
+        {
+            body.release();
+        }
+    }
+
+    /**
+     * @return headers by name. Values of a repeated header are joined with ", ", Set-Cookie ones with new lines
+     * as cookie dates have commas
+     */
+    public HashMap<String, String> getHeaders()
+    {
+        HashMap<String, String> headers = new HashMap<>();
+        for (String name : getHeaderNames())
+        {
+            String separator = "Set-Cookie".equalsIgnoreCase(name) ? "\n" : ", ";
+            headers.put(name, String.join(separator, getHeaders(name)));
+        }
+        return headers;
+    }
+
+    private ServletOutputStream recordableStream() throws IOException
+    {
+        if (this.outputStream == null)
+        {
+            this.outputStream = new RecordableResponseOutputStream(getResponse().getOutputStream());
+        }
+        return this.outputStream;
+    }
+
+    private void resetBody()
+    {
+        bodySize = 0;
+        if (body != null)
+        {
+            if (writer != null)
+            {
+                try
+                {
+                    writer.flushCapture();
+                }
+                catch (IOException e)
+                {
+                    // dropped anyway
+                }
+                writer.resetCapture();
+            }
+            body.reset();
+        }
+    }
+
+    /**
+     * Counts chars written to the writer of the wrapped response and encodes the first maxBodySize of them
+     * into the captured body. Nothing is flushed to the wrapped writer unless the application asks to
+     */
+    private class RecordableWriter extends PrintWriter
+    {
+        private Writer capture;
+        private long capturedChars = 0;
+
+        RecordableWriter(Writer writer, String encoding) throws UnsupportedEncodingException
+        {
+            super(writer);
+            if (body != null)
+            {
+                capture = new OutputStreamWriter(new CaptureOutputStream(), encoding);
+            }
+        }
+
+        @Override
+        public void write(int c)
+        {
+            super.write(c);
+            bodySize++;
+            if (isCapturing())
+            {
+                record(String.valueOf((char)c), 0, 1);
+            }
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len)
+        {
+            super.write(buf, off, len);
+            bodySize += len;
+            if (isCapturing())
+            {
+                record(CharBuffer.wrap(buf), off, off + len);
+            }
+        }
+
+        @Override
+        public void write(String s, int off, int len)
+        {
+            super.write(s, off, len);
+            bodySize += len;
+            if (isCapturing())
+            {
+                record(s, off, off + len);
+            }
+        }
+
+        @Override
+        public void println()
+        {
+            super.println();
+            // the line separator doesn't go through the write methods
+            String separator = System.lineSeparator();
+            bodySize += separator.length();
+            if (isCapturing())
+            {
+                record(separator, 0, separator.length());
+            }
+        }
+
+        /**
+         * Encodes chars left in the encoder of the captured body
+         */
+        void flushCapture() throws IOException
+        {
+            if (capture != null)
+            {
+                capture.flush();
+            }
+        }
+
+        void resetCapture()
+        {
+            capturedChars = 0;
+        }
+
+        /**
+         * A char takes at least a byte, so the captured body is full once maxBodySize chars are encoded
+         */
+        private boolean isCapturing()
+        {
+            return capture != null && capturedChars < maxBodySize;
+        }
+
+        private void record(CharSequence chars, int start, int end)
+        {
+            int captured = (int)Math.min(end - start, maxBodySize - capturedChars);
+            try
+            {
+                capture.append(chars, start, start + captured);
+                capturedChars += captured;
+            }
+            catch (IOException e)
+            {
+                // the body is not captured any more, the response is not affected
+                capture = null;
+            }
+        }
+    }
+
+    private class CaptureOutputStream extends OutputStream
+    {
+        @Override
+        public void write(int b) throws IOException
+        {
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            body.write(b, off, len);
+        }
+    }
+
+    private class RecordableResponseOutputStream extends ServletOutputStream
+    {
+        private final ServletOutputStream os;
+
+        public RecordableResponseOutputStream(ServletOutputStream os)
+        {
+            this.os = os;
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            return os.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            os.setWriteListener(writeListener);
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            os.write(b);
+            bodySize++;
+            if (body != null)
+            {
+                body.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            os.write(b, off, len);
+            bodySize += len;
+            if (body != null)
+            {
+                body.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            os.flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            os.close();
+        }
+    }
+}
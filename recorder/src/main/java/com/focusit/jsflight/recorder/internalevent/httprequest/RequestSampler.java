@@ -0,0 +1,16 @@
+package com.focusit.jsflight.recorder.internalevent.httprequest;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Decides whether a request is recorded, see {@link RequestSamplers} for standard policies.
+ * Called concurrently by request threads
+ */
+public interface RequestSampler
+{
+    /**
+     * @return 0 if the request must not be recorded, otherwise the number of requests of the same kind
+     * the recorded one stands for
+     */
+    long sample(HttpServletRequest request);
+}
@@ -0,0 +1,238 @@
+package com.focusit.jsflight.recorder.internalevent.httprequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorder;
+
+/**
+ * Factory of standard {@link RequestSampler} policies
+ */
+public final class RequestSamplers
+{
+    private RequestSamplers()
+    {
+    }
+
+    /**
+     * Records every request
+     */
+    public static RequestSampler all()
+    {
+        return request -> 1;
+    }
+
+    /**
+     * Records random share of requests. A recorded request stands for 1/ratio requests, rounded up or down
+     * at random so that weights add up to the number of requests on average
+     *
+     * @param ratio from 0 to 1
+     */
+    public static RequestSampler ratio(double ratio)
+    {
+        checkRatio(ratio);
+        return new RatioSampler(() -> ratio);
+    }
+
+    /**
+     * Records share of requests that depends on occupancy of the recorder's queue:
+     * maxRatio while the queue is less than a quarter full, minRatio when it is three quarters full or more,
+     * linear in between. Occupancy is checked once in 10 ms
+     */
+    public static RequestSampler adaptive(InternalEventRecorder recorder, double maxRatio, double minRatio)
+    {
+        checkRatio(maxRatio);
+        checkRatio(minRatio);
+        if (minRatio > maxRatio)
+        {
+            throw new IllegalArgumentException("Min ratio " + minRatio + " is greater than max ratio " + maxRatio);
+        }
+        return new RatioSampler(new AdaptiveRatio(recorder, maxRatio, minRatio));
+    }
+
+    /**
+     * Starts a policy that limits recording rate of requests by URI patterns
+     */
+    public static TokenBucketSamplerBuilder tokenBuckets()
+    {
+        return new TokenBucketSamplerBuilder();
+    }
+
+    private static void checkRatio(double ratio)
+    {
+        if (ratio < 0 || ratio > 1)
+        {
+            throw new IllegalArgumentException("Ratio must be in [0, 1]: " + ratio);
+        }
+    }
+
+    public static class TokenBucketSamplerBuilder
+    {
+        private final List<Pattern> patterns = new ArrayList<>();
+        private final List<TokenBucket> buckets = new ArrayList<>();
+        private TokenBucket defaultBucket;
+
+        private TokenBucketSamplerBuilder()
+        {
+        }
+
+        /**
+         * Requests with URI matching the pattern are recorded at no more than ratePerSecond with bursts up to burst.
+         * Patterns are checked in the order they were added
+         */
+        public TokenBucketSamplerBuilder limit(String uriPattern, double ratePerSecond, int burst)
+        {
+            patterns.add(Pattern.compile(uriPattern));
+            buckets.add(new TokenBucket(ratePerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Limit of requests not matching any pattern. They are all recorded by default
+         */
+        public TokenBucketSamplerBuilder otherwise(double ratePerSecond, int burst)
+        {
+            defaultBucket = new TokenBucket(ratePerSecond, burst);
+            return this;
+        }
+
+        public RequestSampler build()
+        {
+            Pattern[] uriPatterns = patterns.toArray(new Pattern[patterns.size()]);
+            TokenBucket[] uriBuckets = buckets.toArray(new TokenBucket[buckets.size()]);
+            TokenBucket otherBucket = defaultBucket;
+            return request -> {
+                String uri = request.getRequestURI();
+                for (int i = 0; i < uriPatterns.length; i++)
+                {
+                    if (uri != null && uriPatterns[i].matcher(uri).matches())
+                    {
+                        return uriBuckets[i].sample();
+                    }
+                }
+                return otherBucket != null ? otherBucket.sample() : 1;
+            };
+        }
+    }
+
+    private static class RatioSampler implements RequestSampler
+    {
+        private final DoubleSupplier ratio;
+
+        private RatioSampler(DoubleSupplier ratio)
+        {
+            this.ratio = ratio;
+        }
+
+        @Override
+        public long sample(HttpServletRequest request)
+        {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double current = ratio.getAsDouble();
+            if (random.nextDouble() >= current)
+            {
+                return 0;
+            }
+            double weight = 1 / current;
+            long whole = (long)weight;
+            return random.nextDouble() < weight - whole ? whole + 1 : whole;
+        }
+    }
+
+    private static class AdaptiveRatio implements DoubleSupplier
+    {
+        private static final double LOW_OCCUPANCY = 0.25;
+        private static final double HIGH_OCCUPANCY = 0.75;
+        private static final long CHECK_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private final InternalEventRecorder recorder;
+        private final double maxRatio;
+        private final double minRatio;
+        private volatile double ratio;
+        private volatile long nextCheckNs;
+
+        private AdaptiveRatio(InternalEventRecorder recorder, double maxRatio, double minRatio)
+        {
+            this.recorder = recorder;
+            this.maxRatio = maxRatio;
+            this.minRatio = minRatio;
+            this.ratio = maxRatio;
+            this.nextCheckNs = System.nanoTime();
+        }
+
+        @Override
+        public double getAsDouble()
+        {
+            long now = System.nanoTime();
+            if (now - nextCheckNs >= 0)
+            {
+                // a few threads may recompute the ratio at once, that's harmless
+                nextCheckNs = now + CHECK_INTERVAL_NS;
+                ratio = ratioFor(recorder.getQueueOccupancy());
+            }
+            return ratio;
+        }
+
+        private double ratioFor(double occupancy)
+        {
+            if (occupancy <= LOW_OCCUPANCY)
+            {
+                return maxRatio;
+            }
+            if (occupancy >= HIGH_OCCUPANCY)
+            {
+                return minRatio;
+            }
+            double position = (occupancy - LOW_OCCUPANCY) / (HIGH_OCCUPANCY - LOW_OCCUPANCY);
+            return maxRatio - (maxRatio - minRatio) * position;
+        }
+    }
+
+    /**
+     * Lock free token bucket: keeps the time the bucket becomes full again (generic cell rate algorithm).
+     * Counts requests it has skipped since the last sampled one, every bucket is a separate URI pattern
+     */
+    private static class TokenBucket
+    {
+        private final AtomicLong skipped = new AtomicLong();
+        private final long intervalNs;
+        private final long toleranceNs;
+        private final AtomicLong fullAtNs = new AtomicLong(System.nanoTime());
+
+        private TokenBucket(double ratePerSecond, int burst)
+        {
+            if (ratePerSecond <= 0 || burst < 1)
+            {
+                throw new IllegalArgumentException("Rate and burst must be positive: " + ratePerSecond + ", " + burst);
+            }
+            this.intervalNs = (long)(TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            this.toleranceNs = intervalNs * burst;
+        }
+
+        long sample()
+        {
+            while (true)
+            {
+                long now = System.nanoTime();
+                long fullAt = fullAtNs.get();
+                long next = Math.max(fullAt, now) + intervalNs;
+                if (next - now > toleranceNs)
+                {
+                    skipped.incrementAndGet();
+                    return 0;
+                }
+                if (fullAtNs.compareAndSet(fullAt, next))
+                {
+                    return 1 + skipped.getAndSet(0);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.focusit.jsflight.recorder.internalevent.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free histogram of durations with power of two buckets. Percentiles are reported as bucket upper bounds,
+ * so they are precise within a factor of two
+ */
+public class LatencyHistogram
+{
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long durationNs)
+    {
+        long value = Math.max(0, durationNs);
+        // bucket i holds values from 2^i to 2^(i+1) - 1, zero goes to the first one
+        buckets.incrementAndGet(value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public long getMeanNs()
+    {
+        long n = count.sum();
+        return n > 0 ? sum.sum() / n : 0;
+    }
+
+    public long getMaxNs()
+    {
+        return max.get();
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     */
+    public long getPercentileNs(double percentile)
+    {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        long rank = (long)Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0)
+            {
+                return Math.min((2L << i) - 1, getMaxNs());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,41 @@
+package com.focusit.jsflight.recorder.internalevent.monitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter that also reports its rate per second. Rate is measured between reads at least a second apart,
+ * so frequent readers see the same value
+ */
+public class RateMeter
+{
+    private static final long MIN_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder count = new LongAdder();
+    private long sampleNs = System.nanoTime();
+    private long sampleCount = 0;
+    private double rate = 0;
+
+    public void increment()
+    {
+        count.increment();
+    }
+
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    public synchronized double getRatePerSecond()
+    {
+        long now = System.nanoTime();
+        if (now - sampleNs >= MIN_INTERVAL_NS)
+        {
+            long current = count.sum();
+            rate = (current - sampleCount) * (double)TimeUnit.SECONDS.toNanos(1) / (now - sampleNs);
+            sampleCount = current;
+            sampleNs = now;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,263 @@
+package com.focusit.jsflight.recorder.internalevent.monitoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Counters of a single recorder. Updated by pushing and storage threads without locks,
+ * read by {@link RecorderMetricsRegistry} consumers
+ */
+public class RecorderMetrics implements RecorderMetricsMXBean
+{
+    private volatile String name;
+    private final LongSupplier queueSize;
+    private final LongSupplier queueCapacity;
+    private final LongSupplier dropped;
+    private final LongSupplier spilled;
+    private final RateMeter pushed = new RateMeter();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder rollovers = new LongAdder();
+    private final LatencyHistogram flushes = new LatencyHistogram();
+    private final LatencyHistogram enqueues = new LatencyHistogram();
+    private final LatencyHistogram queueSizes = new LatencyHistogram();
+
+    public RecorderMetrics(String name, LongSupplier queueSize, LongSupplier queueCapacity, LongSupplier dropped,
+            LongSupplier spilled)
+    {
+        this.name = name;
+        this.queueSize = queueSize;
+        this.queueCapacity = queueCapacity;
+        this.dropped = dropped;
+        this.spilled = spilled;
+    }
+
+    /**
+     * @param enqueueNs time taken to put the record to the queue, including waiting for a free slot
+     */
+    public void onPush(long enqueueNs)
+    {
+        pushed.increment();
+        enqueues.record(enqueueNs);
+    }
+
+    /**
+     * @param queuedRecords number of records in the queue when the storage thread took a batch from it
+     */
+    public void onDrain(int queuedRecords)
+    {
+        queueSizes.record(queuedRecords);
+    }
+
+    /**
+     * @param records number of records written since the previous flush
+     * @param serializedBytes size of those records before compression
+     * @param durationNs time taken by the flush itself
+     */
+    public void onFlush(int records, long serializedBytes, long durationNs)
+    {
+        written.add(records);
+        bytes.add(serializedBytes);
+        flushes.record(durationNs);
+    }
+
+    public void onRollover()
+    {
+        rollovers.increment();
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Registry makes the name unique among live recorders
+     */
+    void setName(String name)
+    {
+        this.name = name;
+    }
+
+    @Override
+    public long getPushedRecords()
+    {
+        return pushed.getCount();
+    }
+
+    @Override
+    public double getPushRatePerSecond()
+    {
+        return pushed.getRatePerSecond();
+    }
+
+    @Override
+    public long getQueueSize()
+    {
+        return queueSize.getAsLong();
+    }
+
+    @Override
+    public long getQueueCapacity()
+    {
+        return queueCapacity.getAsLong();
+    }
+
+    @Override
+    public double getQueueOccupancy()
+    {
+        long capacity = getQueueCapacity();
+        return capacity > 0 ? (double)getQueueSize() / capacity : 0;
+    }
+
+    @Override
+    public long getQueueSizeP50()
+    {
+        return queueSizes.getPercentileNs(50);
+    }
+
+    @Override
+    public long getQueueSizeP99()
+    {
+        return queueSizes.getPercentileNs(99);
+    }
+
+    @Override
+    public long getQueueSizeMax()
+    {
+        return queueSizes.getMaxNs();
+    }
+
+    @Override
+    public double getQueueOccupancyP99()
+    {
+        long capacity = getQueueCapacity();
+        return capacity > 0 ? (double)getQueueSizeP99() / capacity : 0;
+    }
+
+    @Override
+    public long getEnqueueMeanNanos()
+    {
+        return enqueues.getMeanNs();
+    }
+
+    @Override
+    public long getEnqueueP50Nanos()
+    {
+        return enqueues.getPercentileNs(50);
+    }
+
+    @Override
+    public long getEnqueueP99Nanos()
+    {
+        return enqueues.getPercentileNs(99);
+    }
+
+    @Override
+    public long getEnqueueMaxNanos()
+    {
+        return enqueues.getMaxNs();
+    }
+
+    @Override
+    public long getDroppedRecords()
+    {
+        return dropped.getAsLong();
+    }
+
+    @Override
+    public long getSpilledRecords()
+    {
+        return spilled.getAsLong();
+    }
+
+    @Override
+    public long getWrittenRecords()
+    {
+        return written.sum();
+    }
+
+    @Override
+    public long getSerializedBytes()
+    {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getFileRollovers()
+    {
+        return rollovers.sum();
+    }
+
+    @Override
+    public long getFlushCount()
+    {
+        return flushes.getCount();
+    }
+
+    @Override
+    public long getFlushMeanMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(flushes.getMeanNs());
+    }
+
+    @Override
+    public long getFlushP50Micros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(flushes.getPercentileNs(50));
+    }
+
+    @Override
+    public long getFlushP99Micros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(flushes.getPercentileNs(99));
+    }
+
+    @Override
+    public long getFlushMaxMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros(flushes.getMaxNs());
+    }
+
+    /**
+     * @return all metrics as a JSON object
+     */
+    public String toJson()
+    {
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"name\":\"").append(StringEscapeUtils.escapeJson(name)).append('"');
+        append(json, "pushedRecords", getPushedRecords());
+        append(json, "pushRatePerSecond", getPushRatePerSecond());
+        append(json, "queueSize", getQueueSize());
+        append(json, "queueCapacity", getQueueCapacity());
+        append(json, "queueOccupancy", getQueueOccupancy());
+        append(json, "queueSizeP50", getQueueSizeP50());
+        append(json, "queueSizeP99", getQueueSizeP99());
+        append(json, "queueSizeMax", getQueueSizeMax());
+        append(json, "queueOccupancyP99", getQueueOccupancyP99());
+        append(json, "enqueueMeanNanos", getEnqueueMeanNanos());
+        append(json, "enqueueP50Nanos", getEnqueueP50Nanos());
+        append(json, "enqueueP99Nanos", getEnqueueP99Nanos());
+        append(json, "enqueueMaxNanos", getEnqueueMaxNanos());
+        append(json, "droppedRecords", getDroppedRecords());
+        append(json, "spilledRecords", getSpilledRecords());
+        append(json, "writtenRecords", getWrittenRecords());
+        append(json, "serializedBytes", getSerializedBytes());
+        append(json, "fileRollovers", getFileRollovers());
+        append(json, "flushCount", getFlushCount());
+        append(json, "flushMeanMicros", getFlushMeanMicros());
+        append(json, "flushP50Micros", getFlushP50Micros());
+        append(json, "flushP99Micros", getFlushP99Micros());
+        append(json, "flushMaxMicros", getFlushMaxMicros());
+        return json.append('}').toString();
+    }
+
+    private static void append(StringBuilder json, String key, Object value)
+    {
+        json.append(",\"").append(key).append("\":").append(value);
+    }
+}
@@ -0,0 +1,58 @@
+package com.focusit.jsflight.recorder.internalevent.monitoring;
+
+/**
+ * JMX view of {@link RecorderMetrics}
+ */
+public interface RecorderMetricsMXBean
+{
+    String getName();
+
+    long getPushedRecords();
+
+    double getPushRatePerSecond();
+
+    long getQueueSize();
+
+    long getQueueCapacity();
+
+    double getQueueOccupancy();
+
+    /**
+     * Queue size percentiles are sampled when the storage thread takes a batch, in records
+     */
+    long getQueueSizeP50();
+
+    long getQueueSizeP99();
+
+    long getQueueSizeMax();
+
+    double getQueueOccupancyP99();
+
+    long getEnqueueMeanNanos();
+
+    long getEnqueueP50Nanos();
+
+    long getEnqueueP99Nanos();
+
+    long getEnqueueMaxNanos();
+
+    long getDroppedRecords();
+
+    long getSpilledRecords();
+
+    long getWrittenRecords();
+
+    long getSerializedBytes();
+
+    long getFileRollovers();
+
+    long getFlushCount();
+
+    long getFlushMeanMicros();
+
+    long getFlushP50Micros();
+
+    long getFlushP99Micros();
+
+    long getFlushMaxMicros();
+}
@@ -0,0 +1,104 @@
+package com.focusit.jsflight.recorder.internalevent.monitoring;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics of all live recorders of the JVM. Every registered recorder is also published as an MXBean
+ * named {@value #DOMAIN}:type=InternalEventRecorder,name=&lt;recorder name&gt;.
+ * Recorders share the default storage thread name, so a name already in use gets a -2, -3... suffix
+ */
+public final class RecorderMetricsRegistry
+{
+    public static final String DOMAIN = "com.focusit.jsflight.recorder";
+
+    private static final Logger LOG = LoggerFactory.getLogger(RecorderMetricsRegistry.class);
+    private static final Map<String, RecorderMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private RecorderMetricsRegistry()
+    {
+    }
+
+    /**
+     * Registers metrics of a recorder under a name unique among live recorders
+     */
+    public static void register(RecorderMetrics metrics)
+    {
+        String baseName = metrics.getName();
+        for (int suffix = 2; METRICS.putIfAbsent(metrics.getName(), metrics) != null; suffix++)
+        {
+            metrics.setName(baseName + "-" + suffix);
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName name = objectName(metrics);
+            synchronized (RecorderMetricsRegistry.class)
+            {
+                if (server.isRegistered(name))
+                {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(metrics, name);
+            }
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Can't register recorder metrics MBean " + metrics.getName(), e);
+        }
+    }
+
+    public static void unregister(RecorderMetrics metrics)
+    {
+        if (!METRICS.remove(metrics.getName(), metrics))
+        {
+            return;
+        }
+        try
+        {
+            synchronized (RecorderMetricsRegistry.class)
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(metrics));
+            }
+        }
+        catch (JMException e)
+        {
+            LOG.warn("Can't unregister recorder metrics MBean " + metrics.getName(), e);
+        }
+    }
+
+    public static List<RecorderMetrics> getAll()
+    {
+        return new ArrayList<>(METRICS.values());
+    }
+
+    /**
+     * @return metrics of all recorders as a JSON object
+     */
+    public static String toJson()
+    {
+        StringBuilder json = new StringBuilder("{\"recorders\":[");
+        String separator = "";
+        for (RecorderMetrics metrics : getAll())
+        {
+            json.append(separator).append(metrics.toJson());
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    private static ObjectName objectName(RecorderMetrics metrics) throws JMException
+    {
+        return new ObjectName(DOMAIN + ":type=InternalEventRecorder,name=" + ObjectName.quote(metrics.getName()));
+    }
+}
@@ -14,16 +14,8 @@ jsflight.getEventsAsString = function() {
         console.log('No support of window.sessionStorage');
         return;
     }
-    var storage = window.sessionStorage;
 
-    var events = [];
-    for ( var key in storage) {
-        if (key.indexOf('recorder.eventId.') === 0) {
-            events.push(storage.getItem(key));
-        }
-    }
-
-    return JSON.stringify(events)
+    return JSON.stringify(jsflight.getUnsentEvents())
 }
 
 jsflight.addControlPanel = function() {
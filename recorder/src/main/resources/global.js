@@ -24,3 +24,12 @@ jsflight.xhrId = 0;
 //variable to determine if tracked was started
 jsflight.started = false;
 
+//time before which the server asked not to send tracked data (503 Retry-After)
+jsflight.sendBlockedUntil = 0;
+
+//a batch of tracked data is being sent
+jsflight.sending = false;
+
+//number of unsent events dropped because of ring_max_events
+jsflight.droppedEvents = 0;
+
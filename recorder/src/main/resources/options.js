@@ -37,6 +37,16 @@ jsflight.options = {
     track_duration : -1,
     // time interval to send tracked data, milliseconds
     send_interval : -1,
+    // max number of events sent in one request
+    send_max_events : 500,
+    // max size of events sent in one request, characters. A page being closed sends at most 60000 per request
+    send_max_size : 1024 * 1024,
+    // delay to copy new events to session storage, milliseconds. Events not copied yet are lost on page crash
+    persist_interval : 1000,
+    // max number of unsent events kept by the page, the oldest ones are dropped beyond it
+    ring_max_events : 10000,
+    // gzip requests bigger than this size, characters, where the browser supports CompressionStream
+    send_compress_size : 1024,
     // control panel disabled by default
     cp_disabled : true,
     // list of element`s attributes to check and store
@@ -111,6 +121,21 @@ jsflight.parseOptions = function(options) {
     if (options.send_interval)
         jsflight.options.send_interval = options.send_interval;
 
+    if (options.send_max_events)
+        jsflight.options.send_max_events = options.send_max_events;
+
+    if (options.send_max_size)
+        jsflight.options.send_max_size = options.send_max_size;
+
+    if (options.send_compress_size !== undefined)
+        jsflight.options.send_compress_size = options.send_compress_size;
+
+    if (options.persist_interval)
+        jsflight.options.persist_interval = options.persist_interval;
+
+    if (options.ring_max_events)
+        jsflight.options.ring_max_events = options.ring_max_events;
+
     if (options.track_duration)
         jsflight.options.track_duration = options.track_duration;
 
@@ -153,6 +153,8 @@ jsflight.startRecorder = function() {
     }
 
     window.sessionStorage.setItem('recorder.active', 'true');
+    // events the previous page of the recording has not sent
+    jsflight.restoreEvents();
     jsflight.eventId = +window.sessionStorage.getItem('recorder.max') + 1;
     if (!jsflight.eventId) {
         jsflight.eventId = 0;
@@ -182,6 +184,7 @@ jsflight.stopRecorder = function() {
 
     window.sessionStorage.removeItem('recorder.active');
     window.sessionStorage.removeItem('recorder.max');
+    window.sessionStorage.removeItem('recorder.sent');
 
     if (jsflight.options.trackXhr || jsflight.options.trackPing) {
         jsflight.stopXhrTracking();
@@ -243,13 +246,18 @@ jsflight.addJSFlightHooksOnDocumentLoad = function(options) {
         jsflight.addControlHook();
     });
 
-    // when tab is above to close
-    bind(window, 'beforeunload', function() {
+    // when tab is about to close. pagehide fires on mobile browsers and for pages going to bfcache too
+    bind(window, 'pagehide', function(event) {
+        // a page kept in bfcache goes on recording once it is shown again, its timers are frozen meanwhile
+        if (event && event.persisted) {
+            jsflight.sendEventData(false, true);
+            return;
+        }
         jsflight.stopTimers();
         // disable all event handlers
         jsflight.removeControlHook();
         // send captured events
-        jsflight.sendEventData(true);
+        jsflight.sendEventData(true, true);
     });
 };
 
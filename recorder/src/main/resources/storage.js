@@ -237,8 +237,106 @@
         return result;
     };
 
+    var EVENT_KEY = 'recorder.eventId.';
+
+    // unsent events, oldest first, starting from ring.head. Sent events are cut off the arrays from time to time,
+    // events sent by beacon behind a request in flight are nulled until then
+    var ring = {ids : [], events : [], head : 0};
+    // events up to this id are copied to session storage
+    var persistedId = -1;
+    var persistTimer = null;
+    // events up to this id are posted by the request in flight, -1 if there is none
+    var sendingId = -1;
+    // the recording was stopped while a batch was in flight, the stop is sent after it
+    var stopPending = false;
+
+    /**
+     * Copy events added since the last time to session storage, so they survive page reload
+     */
+    function persistEvents() {
+        if (persistTimer !== null) {
+            window.clearTimeout(persistTimer);
+            persistTimer = null;
+        }
+        var storage = window.sessionStorage;
+        var last = ring.ids.length - 1;
+        if (!storage || last < ring.head || ring.ids[last] <= persistedId)
+            return;
+
+        try {
+            for (var i = last; i >= ring.head && ring.ids[i] > persistedId; i--) {
+                if (ring.events[i] !== null) {
+                    storage.setItem(EVENT_KEY + ring.ids[i], ring.events[i]);
+                }
+            }
+            persistedId = ring.ids[last];
+            storage.setItem('recorder.max', persistedId);
+        } catch (e) {
+            // QuotaExceededError, the events are still kept by the page and copied once sent events are removed
+            console.log(e);
+        }
+    }
+
+    /**
+     * Cut forgotten events off the arrays once they take most of them
+     */
+    function compactRing() {
+        if (ring.head > 1024 && ring.head * 2 > ring.ids.length) {
+            ring.ids.splice(0, ring.head);
+            ring.events.splice(0, ring.head);
+            ring.head = 0;
+        }
+    }
+
     /**
-     * Store event to session storage
+     * Forget events up to lastId, they are stored by the server
+     */
+    function acknowledgeEvents(lastId) {
+        var storage = window.sessionStorage;
+        while (ring.head < ring.ids.length && ring.ids[ring.head] <= lastId) {
+            var id = ring.ids[ring.head];
+            if (storage && id <= persistedId) {
+                storage.removeItem(EVENT_KEY + id);
+            }
+            ring.events[ring.head] = null;
+            ring.head++;
+        }
+        compactRing();
+        // a stopped recording starts over, see jsflight.stopRecorder
+        if (storage && jsflight.started) {
+            // the events are sent before the persist timer has copied them
+            if (lastId > persistedId) {
+                persistedId = lastId;
+                storage.setItem('recorder.max', lastId);
+            }
+            if (lastId > +storage.getItem('recorder.sent')) {
+                storage.setItem('recorder.sent', lastId);
+            }
+        }
+    }
+
+    /**
+     * Forget events of a batch accepted by sendBeacon. The browser may still drop it, that loss is accepted
+     * to never record an event twice. Events of a request in flight before them stay till it completes
+     */
+    function forgetBeaconed(batch) {
+        if (sendingId < 0) {
+            acknowledgeEvents(batch.lastId);
+            return;
+        }
+        var storage = window.sessionStorage;
+        for (var i = ring.head; i < ring.ids.length && ring.ids[i] <= batch.lastId; i++) {
+            if (ring.ids[i] >= batch.firstId) {
+                if (ring.ids[i] <= persistedId) {
+                    storage.removeItem(EVENT_KEY + ring.ids[i]);
+                }
+                ring.events[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Store event, it is copied to session storage within persist_interval
      * 
      * @param eventId
      * @param eventdata
@@ -249,8 +347,57 @@
             return;
         }
 
-        window.sessionStorage.setItem("recorder.max", eventId);
-        window.sessionStorage.setItem('recorder.eventId.' + eventId, eventdata);
+        var storage = window.sessionStorage;
+        while (ring.ids.length - ring.head >= jsflight.options.ring_max_events) {
+            if (ring.ids[ring.head] <= persistedId) {
+                storage.removeItem(EVENT_KEY + ring.ids[ring.head]);
+            }
+            if (ring.events[ring.head] !== null) {
+                jsflight.droppedEvents++;
+            }
+            ring.events[ring.head] = null;
+            ring.head++;
+        }
+        compactRing();
+
+        ring.ids.push(eventId);
+        ring.events.push(eventdata);
+        if (persistTimer === null) {
+            persistTimer = window.setTimeout(persistEvents, jsflight.options.persist_interval);
+        }
+    };
+
+    /**
+     * Load events left unsent by the previous page of the recording: those after recorder.sent
+     * up to recorder.max
+     */
+    jsflight.restoreEvents = function() {
+        var storage = window.sessionStorage;
+        if (!storage || ring.ids.length > ring.head)
+            return;
+
+        var sent = storage.getItem('recorder.sent');
+        var max = storage.getItem('recorder.max');
+        if (max === null)
+            return;
+
+        for (var id = sent === null ? 0 : +sent + 1; id <= +max; id++) {
+            var event = storage.getItem(EVENT_KEY + id);
+            if (event !== null) {
+                ring.ids.push(id);
+                ring.events.push(event);
+            }
+        }
+        persistedId = +max;
+    };
+
+    /**
+     * @returns {Array} events not sent yet
+     */
+    jsflight.getUnsentEvents = function() {
+        return ring.events.slice(ring.head).filter(function(event) {
+            return event !== null;
+        });
     };
 
     /**
@@ -258,54 +405,175 @@
      */
     jsflight.clearStorage = function() {
         jsflight.eventId = 0;
+        ring = {ids : [], events : [], head : 0};
+        persistedId = -1;
+        sendingId = -1;
+        stopPending = false;
         sessionStorage.clear();
     };
 
+    // sendBeacon payload is limited by browsers to 64KB
+    var BEACON_MAX_SIZE = 60000;
+
     /**
-     * send current batch of stored events and clear session storage
+     * Collect unsent events, the oldest first, up to the count and size limits. Events in flight are skipped
+     *
+     * @param maxSize
+     * @returns {{events: Array, firstId: Number, lastId: Number, left: boolean}}
      */
-    jsflight.sendEventData = function(sendStop) {
-        if (!jsflight.started)
-            return;
-
-        if (!window.sessionStorage) {
-            console.log('No support of window.sessionStorage');
-            return;
+    function collectEvents(maxSize) {
+        var batch = {events : [], firstId : -1, lastId : -1, left : false};
+        var size = 2;
+        for (var i = ring.head; i < ring.ids.length; i++) {
+            var event = ring.events[i];
+            if (ring.ids[i] <= sendingId || event === null)
+                continue;
+            // an event bigger than the limit is sent alone
+            if (batch.events.length >= jsflight.options.send_max_events
+                    || (batch.events.length > 0 && size + event.length + 3 > maxSize)) {
+                batch.left = true;
+                break;
+            }
+            if (!batch.events.length)
+                batch.firstId = ring.ids[i];
+            batch.events.push(event);
+            batch.lastId = ring.ids[i];
+            size += event.length + 3;
         }
+        return batch;
+    }
 
-        var storage = window.sessionStorage;
+    /**
+     * Gzip data with CompressionStream
+     *
+     * @returns Promise of ArrayBuffer
+     */
+    function compress(data) {
+        var stream = new Blob([data]).stream().pipeThrough(new CompressionStream('gzip'));
+        return new Response(stream).arrayBuffer();
+    }
 
-        var events = [];
-        var keys = [];
-        for (var i = 0; i < storage.length; i++) {
-            var key = storage.key(i);
-            if (key && key.startsWith('recorder.eventId.')) {
-                events.push(storage.getItem(key));
-                keys.push(key);
-            }
+    function postEvents(uri, data, onload) {
+        var xhr = new XMLHttpRequest();
+        xhr.open('POST', uri, true);
+        // plain JSON is streamed by the server, unlike url encoded form
+        xhr.setRequestHeader('Content-type', 'application/json; charset=UTF-8');
+        xhr.onload = function() {
+            onload(xhr);
+        };
+        xhr.onerror = function() {
+            onload(xhr);
+        };
+        if (window.CompressionStream && data.length > jsflight.options.send_compress_size) {
+            compress(data).then(function(compressed) {
+                xhr.setRequestHeader('Content-Encoding', 'gzip');
+                xhr.send(compressed);
+            }, function() {
+                xhr.send(data);
+            });
+        } else {
+            xhr.send(data);
         }
+    }
+
+    /**
+     * Send stored events with navigator.sendBeacon, it survives page unload.
+     * Beacons can't be compressed: compression is asynchronous and the page is gone before it completes
+     */
+    function beaconEvents(sendStop) {
+        var uri = jsflight.options.baseUrl + jsflight.options.downloadPath;
+        var batch;
+        do {
+            batch = collectEvents(Math.min(BEACON_MAX_SIZE, jsflight.options.send_max_size));
+            if (!batch.events.length && !sendStop)
+                return;
+
+            var blob = new Blob([JSON.stringify(batch.events)], {type : 'application/json'});
+            if (!navigator.sendBeacon(uri + (sendStop && !batch.left ? '?stop' : ''), blob)) {
+                // the browser has run out of beacon quota
+                break;
+            }
+            if (batch.events.length)
+                forgetBeaconed(batch);
+        } while (batch.left);
+        // what the browser has refused to send waits for the next page of the recording
+        persistEvents();
+    }
+
+    /**
+     * Send a batch of stored events, the rest is sent once the batch is stored
+     */
+    function sendBatch(sendStop) {
+        var batch = collectEvents(jsflight.options.send_max_size);
 
         // it is pity to send an empty array. No tracked data no xhr post
-        if (!events.length && !sendStop)
+        if (!batch.events.length && !sendStop)
             return;
 
-        var data = JSON.stringify(events);
         var uri = jsflight.options.baseUrl + jsflight.options.downloadPath;
-        if (sendStop) {
+        if (sendStop && !batch.left) {
             uri += "?stop";
         }
-        var xhr = new XMLHttpRequest();
-        xhr.open('POST', uri, true);
-        xhr.setRequestHeader('Content-type', 'application/x-www-form-urlencoded');
-        xhr.onload = function() {
+        jsflight.sending = true;
+        if (batch.events.length)
+            sendingId = batch.lastId;
+        postEvents(uri, JSON.stringify(batch.events), function(xhr) {
+            jsflight.sending = false;
+            sendingId = -1;
+            var stopNow = stopPending && !sendStop;
+            stopPending = false;
             if (xhr.status == 200) {
-                for (var i = 0; i < keys.length; i++) {
-                    storage.removeItem(keys[i]);
-                }
+                acknowledgeEvents(batch.lastId);
+                // send the rest right away instead of waiting for the timer, the recorder may be stopped already
+                if (batch.left || stopNow)
+                    sendBatch(sendStop || stopNow);
+                return;
+            }
+            if (stopNow) {
+                sendBatch(true);
+            } else if (xhr.status == 503) {
+                var retryAfter = parseInt(xhr.getResponseHeader('Retry-After'), 10);
+                jsflight.sendBlockedUntil = Date.now() + (isNaN(retryAfter) ? 5 : retryAfter) * 1000;
             } else {
                 console.log("error storing data. status " + xhr.status);
             }
-        };
-        xhr.send('data=' + encodeURIComponent(data));
+        });
+    }
+
+    /**
+     * send current batch of stored events and clear session storage
+     *
+     * @param sendStop the recording is stopped, send all the events
+     * @param pageHide the page is being closed, use sendBeacon if available
+     */
+    jsflight.sendEventData = function(sendStop, pageHide) {
+        if (!jsflight.started)
+            return;
+
+        if (!window.sessionStorage) {
+            console.log('No support of window.sessionStorage');
+            return;
+        }
+
+        if (pageHide)
+            persistEvents();
+
+        if (pageHide && navigator.sendBeacon) {
+            beaconEvents(sendStop);
+            return;
+        }
+
+        // the server is overloaded, events stay in the storage till it is ready
+        if (!sendStop && Date.now() < jsflight.sendBlockedUntil)
+            return;
+
+        // events of a batch in flight are still in the storage, the rest is sent after it
+        if (jsflight.sending) {
+            if (sendStop)
+                stopPending = true;
+            return;
+        }
+
+        sendBatch(sendStop);
     };
 })(window, document, screen);
\ No newline at end of file
@@ -0,0 +1,120 @@
+import com.focusit.jsflight.recorder.AppendLogRecordingProcessor
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+import java.util.zip.CRC32
+
+class AppendLogRecordingProcessorSpec extends Specification {
+
+    @Shared
+    File directory = new File("/tmp/record/appendlog")
+
+    def setup() {
+        directory.mkdirs()
+    }
+
+    def "events of concurrent batches are stored per session with rotation"() {
+        given:
+        def processor = new AppendLogRecordingProcessor(directory, AppendLogRecordingProcessor.Format.NDJSON, 4096)
+
+        when:
+        (0..<4).collect { thread ->
+            Thread.start {
+                50.times { batch ->
+                    def events = (0..<6).collect {
+                        JsonOutput.toJson([tabuuid: 'tab' + (it % 2), eventId: thread * 1000 + batch * 6 + it])
+                    }
+                    processor.processStoreEvent(Mock(HttpServletRequest), response(),
+                            new StringReader(JsonOutput.toJson(events)))
+                }
+            }
+        }*.join()
+        processor.close()
+        def index = new File(directory, AppendLogRecordingProcessor.INDEX_FILE).readLines()
+                .collect { new JsonSlurper().parseText(it) }
+
+        then:
+        index.groupBy { it.session }.keySet() == ['tab0', 'tab1'] as Set
+        index.findAll { it.session == 'tab0' }*.segment.size() > 1
+        ['tab0', 'tab1'].each { tab ->
+            def events = index.findAll { it.session == tab }.collectMany { entry ->
+                new File(directory, entry.segment).readLines().collect { new JsonSlurper().parseText(it) }
+            }
+            assert events.size() == 600
+            assert events.every { it.tabuuid == tab }
+            assert events*.eventId.unique().size() == 600
+        }
+    }
+
+    def "binary segments keep length and checksum of every event"() {
+        given:
+        def processor = new AppendLogRecordingProcessor(directory, AppendLogRecordingProcessor.Format.BINARY,
+                AppendLogRecordingProcessor.DEFAULT_MAX_SEGMENT_SIZE)
+        def events = ['{"uuid":"u-1","type":"click"}', '{"type":"я"}']
+
+        when:
+        processor.processStoreEvent(Mock(HttpServletRequest), response(), JsonOutput.toJson(events))
+        processor.close()
+        def stored = [:]
+        ['u-1', 'unknown'].each { session ->
+            new File(directory, session + '.1.bin').withDataInputStream { input ->
+                assert input.readInt() == AppendLogRecordingProcessor.BINARY_MAGIC
+                assert input.readByte() == AppendLogRecordingProcessor.BINARY_VERSION
+                def bytes = new byte[input.readInt()]
+                def checksum = input.readInt()
+                input.readFully(bytes)
+                def crc = new CRC32()
+                crc.update(bytes)
+                assert (int)crc.value == checksum
+                stored[session] = new String(bytes, 'UTF-8')
+            }
+        }
+
+        then:
+        stored == ['u-1': events[0], unknown: events[1]]
+    }
+
+    def "batches stored while closing are either stored or rejected"() {
+        given:
+        def processor = new AppendLogRecordingProcessor(directory)
+        def outcomes = new java.util.concurrent.ConcurrentLinkedQueue()
+
+        when:
+        def threads = (0..<4).collect { thread ->
+            Thread.start {
+                100.times {
+                    def response = Stub(HttpServletResponse) {
+                        getWriter() >> new PrintWriter(new StringWriter())
+                        setStatus(200) >> { outcomes << 'stored' }
+                        sendError(500) >> { outcomes << 'rejected' }
+                    }
+                    processor.processStoreEvent(Mock(HttpServletRequest), response,
+                            JsonOutput.toJson([JsonOutput.toJson([tabuuid: 'tab' + thread])]))
+                }
+            }
+        }
+        Thread.sleep(5)
+        processor.close()
+        threads*.join(10000)
+
+        then:
+        threads.every { !it.alive }
+        outcomes.size() == 400
+        outcomes.contains('stored')
+    }
+
+    def cleanup() {
+        directory.listFiles().each { it -> it.delete() }
+        directory.delete()
+    }
+
+    private HttpServletResponse response() {
+        Mock(HttpServletResponse) {
+            getWriter() >> new PrintWriter(new StringWriter())
+        }
+    }
+}
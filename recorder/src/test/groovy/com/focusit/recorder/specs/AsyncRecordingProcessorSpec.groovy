@@ -0,0 +1,130 @@
+import com.focusit.jsflight.recorder.AsyncRecordingProcessor
+import com.focusit.jsflight.recorder.DetachedHttpServletRequest
+import com.focusit.jsflight.recorder.RecordingProcessor
+import spock.lang.Specification
+
+import javax.servlet.http.Cookie
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+import javax.servlet.http.HttpSession
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AsyncRecordingProcessorSpec extends Specification {
+
+    def "batches are acknowledged when queued and rejected with 503 on overload"() {
+        given:
+        def release = new CountDownLatch(1)
+        def started = new CountDownLatch(1)
+        def processed = new CopyOnWriteArrayList()
+        // not a mock: a blocked mock would block every other mock of the feature
+        def slow = new SlowProcessor(started: started, release: release, processed: processed)
+        def processor = new AsyncRecordingProcessor(slow, 1, 1)
+        processor.retryAfter = 3
+        def first = Mock(HttpServletResponse)
+        def second = Mock(HttpServletResponse)
+        def third = Mock(HttpServletResponse)
+
+        when:
+        processor.processStoreEvent(request(), first, new StringReader('[1]'))
+        started.await(5, TimeUnit.SECONDS)
+        processor.processStoreEvent(request(), second, new StringReader('[2]'))
+        processor.processStoreEvent(request(), third, new StringReader('[3]'))
+        release.countDown()
+        processor.close()
+
+        then:
+        1 * first.setStatus(HttpServletResponse.SC_OK)
+        1 * first.getWriter() >> new PrintWriter(new StringWriter())
+        1 * second.setStatus(HttpServletResponse.SC_OK)
+        1 * second.getWriter() >> new PrintWriter(new StringWriter())
+        1 * third.setHeader('Retry-After', '3')
+        1 * third.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE)
+        0 * third.setStatus(_)
+        processed == [['test', '42', '[1]'], ['test', '42', '[2]']]
+    }
+
+    def "queued batch keeps cookies, attributes, paths and session of its request"() {
+        given:
+        def slow = new SlowProcessor(started: new CountDownLatch(1), release: new CountDownLatch(0),
+                processed: new CopyOnWriteArrayList())
+        def processor = new AsyncRecordingProcessor(slow, 1, 1)
+        def session = Mock(HttpSession)
+        def original = Mock(HttpServletRequest) {
+            getHeaderNames() >> Collections.enumeration(['If-Modified-Since'])
+            getHeaders('If-Modified-Since') >> Collections.enumeration(['Thu, 01 Jan 1970 00:00:01 GMT'])
+            getParameterMap() >> [:]
+            getAttributeNames() >> Collections.enumeration(['user'])
+            getAttribute('user') >> 'alice'
+            getCookies() >> ([new Cookie('JSESSIONID', 's1')] as Cookie[])
+            getContextPath() >> '/app'
+            getRequestedSessionId() >> 's1'
+            getSession(false) >> session
+            getRemoteAddr() >> '10.0.0.1'
+            getLocalPort() >> 8080
+        }
+
+        when:
+        processor.processStoreEvent(original, Stub(HttpServletResponse) {
+            getWriter() >> new PrintWriter(new StringWriter())
+        }, new StringReader('[1]'))
+        processor.close()
+        def detached = slow.requests.first()
+
+        then:
+        detached.getDateHeader('If-Modified-Since') == 1000L
+        detached.getDateHeader('Date') == -1L
+        detached.getAttribute('user') == 'alice'
+        detached.cookies*.value == ['s1']
+        detached.contextPath == '/app'
+        detached.requestedSessionId == 's1'
+        detached.getSession().is(session)
+        detached.remoteAddr == '10.0.0.1'
+        detached.localPort == 8080
+        detached.inputStream.read() == -1
+        !detached.isUserInRole('admin')
+    }
+
+    def "queued batch of a request without a session can't create one"() {
+        given:
+        def detached = new DetachedHttpServletRequest(request())
+
+        when:
+        detached.getSession()
+
+        then:
+        detached.getSession(false) == null
+        thrown(IllegalStateException)
+    }
+
+    private HttpServletRequest request() {
+        Mock(HttpServletRequest) {
+            getHeaderNames() >> Collections.enumeration(['User-Agent'])
+            getHeaders('User-Agent') >> Collections.enumeration(['test'])
+            getParameterMap() >> [tab: ['42'] as String[]]
+        }
+    }
+
+    static class SlowProcessor implements RecordingProcessor {
+        CountDownLatch started
+        CountDownLatch release
+        List processed
+        List requests = new CopyOnWriteArrayList()
+
+        void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, Reader data) {
+            requests << req
+            started.countDown()
+            release.await()
+            processed << [req.getHeader('User-Agent'), req.getParameter('tab'), data.text]
+        }
+
+        void processStoreEvent(HttpServletRequest req, HttpServletResponse resp, String data) {}
+
+        void processDownloadRequest(HttpServletRequest req, HttpServletResponse resp, String data) {}
+
+        void processRecordStop(HttpServletRequest req, HttpServletResponse resp, String data) {}
+
+        void processError(HttpServletRequest req, HttpServletResponse resp, String data) {}
+    }
+}
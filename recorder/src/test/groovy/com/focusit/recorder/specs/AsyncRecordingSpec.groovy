@@ -0,0 +1,95 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecordInformation
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecorderFilterBase
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.servlet.*
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+
+class AsyncRecordingSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/async")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "async request is recorded when async processing completes"() {
+        given:
+        def filter = new TestFilter(file.absolutePath)
+        def listeners = []
+        def attributes = [:]
+        def asyncContext = Mock(AsyncContext) {
+            addListener(_) >> { AsyncListener listener -> listeners << listener }
+        }
+        def request = Mock(HttpServletRequest) {
+            getDispatcherType() >> DispatcherType.REQUEST
+            getHeaderNames() >> { Collections.enumeration([]) }
+            getContentLength() >> -1
+            getServletContext() >> Mock(ServletContext)
+            getAttribute(_) >> { String name -> attributes[name] }
+            setAttribute(_, _) >> { String name, value -> attributes[name] = value }
+            removeAttribute(_) >> { String name -> attributes.remove(name) }
+            isAsyncStarted() >> true
+            getAsyncContext() >> asyncContext
+        }
+        def response = Mock(HttpServletResponse) {
+            getStatus() >> 202
+            getHeaderNames() >> []
+        }
+
+        when:
+        filter.doFilter(request, response, Mock(FilterChain))
+
+        then:
+        listeners.size() == 1
+
+        when:
+        sleep(20)
+        listeners[0].onComplete(new AsyncEvent(asyncContext))
+        filter.destroy()
+        def records = readAll(file.parentFile.listFiles().first())
+
+        then:
+        records.size() == 1
+        with(records[0].data as HttpRecordInformation) {
+            status == 202
+            requestEndNs - requestStartNs >= 20000000L
+        }
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+
+    static class TestFilter extends HttpRecorderFilterBase {
+        TestFilter(String file) {
+            initInternal(file)
+            init(null)
+            setEnabled(true)
+        }
+
+        void prepareHttpRecordInfo(HttpRecordInformation info, ServletRequest request, ServletResponse response) {}
+
+        void updateHttpRecordInfo(HttpRecordInformation info, ServletRequest request, ServletResponse response) {}
+
+        protected boolean doNotRecordRequest(HttpServletRequest request, HttpServletResponse response) { false }
+
+        protected void logException(Exception e) { throw e }
+    }
+}
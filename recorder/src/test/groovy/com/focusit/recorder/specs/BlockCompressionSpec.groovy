@@ -0,0 +1,113 @@
+import com.focusit.jsflight.recorder.internalevent.BlockCompression
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class BlockCompressionSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/blocks")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "block compressed records are read back"() {
+        given:
+        def recording = record(compression)
+
+        when:
+        def records = readAll(recording)
+
+        then:
+        records.size() == 2000
+        records*.data == (0..<2000).collect { 'payload ' + (it % 10) * 1000 }
+        records*.tag.unique() == ['HTTPREQUEST']
+
+        where:
+        compression << BlockCompression.values()
+    }
+
+    def "corrupted block is detected"() {
+        given:
+        def recording = record(BlockCompression.LZ4)
+        def bytes = recording.bytes
+        bytes[bytes.length.intdiv(2)] ^= 0x55
+        recording.bytes = bytes
+
+        when:
+        readAll(recording)
+
+        then:
+        thrown(Exception)
+    }
+
+    def "records pushed one at a time share a block"() {
+        given:
+        def eager = recordSlowly(0)
+        def delayed = recordSlowly(60000)
+
+        expect:
+        blocks(eager) >= 20
+        blocks(delayed) == 1
+        delayed.length() < eager.length()
+        readAll(delayed)*.data == (0..<20).collect { 'payload ' + it }
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private File record(BlockCompression compression) {
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath())
+                .blockCompression(compression, 1024).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        2000.times {
+            recorder.push('HTTPREQUEST', 'payload ' + (it % 10) * 1000)
+        }
+        recorder.shutdown()
+        file.parentFile.listFiles().first()
+    }
+
+    private File recordSlowly(long maxFlushDelayMs) {
+        def recording = new File(file.parentFile, 'slow' + maxFlushDelayMs)
+        def recorder = InternalEventRecorderBuilder.builderFor(recording.getAbsolutePath())
+                .blockCompression(BlockCompression.LZ4, 65536).indexInterval(0).maxFlushDelay(maxFlushDelayMs).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        20.times {
+            recorder.push('HTTPREQUEST', 'payload ' + it)
+            Thread.sleep(30)
+        }
+        recorder.shutdown()
+        file.parentFile.listFiles().find { it.name.startsWith(recording.name) }
+    }
+
+    private static int blocks(File recording) {
+        int blocks = 0
+        recording.withDataInputStream { input ->
+            input.skipBytes(5)
+            while (input.readByte() != (byte)0xFF) {
+                input.skipBytes(4)
+                int stored = input.readInt()
+                input.skipBytes(4 + stored)
+                blocks++
+            }
+        }
+        blocks
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,109 @@
+import spock.lang.Requires
+import spock.lang.Specification
+
+import javax.script.ScriptEngine
+import javax.script.ScriptEngineManager
+
+@Requires({ new ScriptEngineManager().getEngineByName('nashorn') != null })
+class EventStorageScriptSpec extends Specification {
+
+    // browser objects used by storage.js, session storage is backed by a map shared by pages of a tab
+    static final String BROWSER = '''
+        var timers = [], requests = [], beacons = [];
+        var sessionStorage = {
+            setItem : function(key, value) { tab.put(key, String(value)); },
+            getItem : function(key) { return tab.containsKey(key) ? tab.get(key) : null; },
+            removeItem : function(key) { tab.remove(key); },
+            clear : function() { tab.clear(); }
+        };
+        var window = {
+            sessionStorage : sessionStorage,
+            location : {},
+            setTimeout : function(callback) { timers.push(callback); return timers.length; },
+            clearTimeout : function() {}
+        };
+        var document = {}, screen = {};
+        var console = { log : function() {} };
+        var navigator = { sendBeacon : function(uri, blob) { beacons.push(JSON.parse(blob.data)); return true; } };
+        function Blob(parts) { this.data = parts[0]; }
+        function XMLHttpRequest() {
+            var xhr = this;
+            xhr.open = function(method, uri) {};
+            xhr.setRequestHeader = function() {};
+            xhr.send = function(data) { xhr.events = JSON.parse(data); requests.push(xhr); };
+        }
+        function complete(status) {
+            var xhr = requests.shift();
+            xhr.status = status;
+            xhr.getResponseHeader = function() { return null; };
+            xhr.onload();
+        }
+        function record(from, to) {
+            for (var id = from; id <= to; id++) {
+                jsflight.saveToStorage(id, JSON.stringify({eventId : id}));
+            }
+        }
+    '''
+
+    Map<String, String> tab = [:]
+
+    def "events sent by beacon are not sent again by the next page"() {
+        given:
+        def page = open()
+        page.eval('record(0, 2); jsflight.sendEventData(false); complete(200); record(3, 5)')
+
+        when:
+        page.eval('jsflight.sendEventData(true, true)')
+        def next = open()
+        next.eval('jsflight.restoreEvents()')
+
+        then:
+        page.eval('JSON.stringify(beacons)') == '[["{\\"eventId\\":3}","{\\"eventId\\":4}","{\\"eventId\\":5}"]]'
+        next.eval('jsflight.getUnsentEvents().length') == 0
+        tab['recorder.sent'] == '5'
+    }
+
+    def "events of a request left in flight are sent by the next page"() {
+        given:
+        def page = open()
+        page.eval('record(0, 2); jsflight.sendEventData(false); record(3, 4)')
+
+        when:
+        page.eval('jsflight.sendEventData(true, true)')
+        def next = open()
+        next.eval('jsflight.restoreEvents()')
+
+        then:
+        page.eval('beacons[0].length') == 2
+        next.eval('JSON.stringify(jsflight.getUnsentEvents())') ==
+                '["{\\"eventId\\":0}","{\\"eventId\\":1}","{\\"eventId\\":2}"]'
+    }
+
+    def "events sent before they are copied to session storage are not restored"() {
+        given:
+        def page = open()
+        page.eval('record(0, 2); jsflight.sendEventData(false); complete(200)')
+
+        when:
+        def next = open()
+        next.eval('jsflight.restoreEvents()')
+
+        then:
+        tab['recorder.max'] == '2'
+        tab['recorder.sent'] == '2'
+        next.eval('jsflight.getUnsentEvents().length') == 0
+    }
+
+    /**
+     * Loads the recorder scripts into a new page of the tab
+     */
+    private ScriptEngine open() {
+        def engine = new ScriptEngineManager().getEngineByName('nashorn')
+        engine.put('tab', tab)
+        engine.eval(BROWSER)
+        ['global.js', 'options.js'].each { engine.eval(getClass().getResource('/' + it).text) }
+        engine.eval('window.jsflight = jsflight; jsflight.started = true')
+        engine.eval(getClass().getResource('/storage.js').text)
+        engine
+    }
+}
@@ -0,0 +1,54 @@
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.FastInput
+import com.esotericsoftware.kryo.serializers.MapSerializer
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecordInformation
+import com.focusit.jsflight.recorder.internalevent.httprequest.HttpRecorderHelper
+import spock.lang.Specification
+
+import javax.servlet.ServletContext
+import javax.servlet.http.Cookie
+import javax.servlet.http.HttpServletRequest
+
+class HttpRecorderHelperSpec extends Specification {
+
+    def "captured request is read back as hash maps"() {
+        given:
+        def context = Mock(ServletContext) {
+            getContextPath() >> '/app'
+        }
+        def request = Mock(HttpServletRequest) {
+            getParameterMap() >> Collections.unmodifiableMap([q: ['a', 'b'] as String[]])
+            getHeaderNames() >> { Collections.enumeration(['Host', 'Accept']) }
+            getHeader('Host') >> 'localhost'
+            getHeader('Accept') >> '*/*'
+            getContentLength() >> size
+            getContentType() >> 'text/plain'
+            getRequestURI() >> '/app/path'
+            getMethod() >> 'POST'
+            getServletContext() >> context
+            getCookies() >> ([new Cookie('JSESSIONID', 'abc')] as Cookie[])
+        }
+        def info = new HttpRecordInformation()
+
+        when:
+        HttpRecorderHelper.prepareRequestToRecord(request, info)
+        def kryo = new Kryo()
+        kryo.register(HashMap.class, new MapSerializer())
+        def input = new FastInput(new ByteArrayInputStream(info.params))
+
+        then:
+        kryo.readObject(input, HashMap.class).q == ['a', 'b'] as String[]
+        kryo.readObject(input, HashMap.class) == [Host: 'localhost', Accept: '*/*']
+        kryo.readObjectOrNull(input, Integer.class) == size
+        kryo.readObjectOrNull(input, String.class) == 'text/plain'
+        kryo.readObjectOrNull(input, String.class) == '/app/path'
+        kryo.readObjectOrNull(input, String.class) == 'POST'
+        kryo.readObjectOrNull(input, String.class) == '/app'
+        kryo.readObject(input, HashMap.class) == [JSESSIONID: 'abc']
+        input.eof()
+
+        where:
+        // the same thread captures both, the second one reuses buffers of the first
+        size << [10, 20]
+    }
+}
@@ -0,0 +1,127 @@
+import com.esotericsoftware.kryo.Kryo
+import com.esotericsoftware.kryo.io.FastOutput
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class InternalEventReaderSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/reader")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "records are read back with their tags"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath())
+        if (gzip) {
+            builder.storeInGzip()
+        }
+        def recorder = builder.build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        def idTag = recorder.registerTag('idRecording')
+
+        when:
+        recorder.push(' HTTPREQUEST ', 'first')
+        recorder.push(idTag, 'second')
+        recorder.push('HTTPREQUEST', 'third')
+        recorder.shutdown()
+        def records = readAll(file.parentFile.listFiles().first())
+
+        then:
+        records*.tag == ['HTTPREQUEST', 'idRecording', 'HTTPREQUEST']
+        records*.data == ['first', 'second', 'third']
+        records*.id == [0L, 1L, 2L]
+
+        where:
+        gzip << [false, true]
+    }
+
+    def "tag name is stored once per file"() {
+        given:
+        // index footer keeps its own copy of the tag dictionary
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).indexInterval(0).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        100.times {
+            recorder.push('a-rather-long-application-specific-tag', null)
+        }
+        recorder.shutdown()
+        def recording = file.parentFile.listFiles().first()
+
+        then:
+        // kryo marks the last char of an ascii string, so look for the prefix
+        recording.text.count('a-rather-long-application-specific-ta') == 1
+        readAll(recording).size() == 100
+    }
+
+    def "record with an unknown tag id is skipped"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        recorder.push(42, 'lost')
+        recorder.push('HTTPREQUEST', 'kept')
+        recorder.shutdown()
+
+        then:
+        readAll(file.parentFile.listFiles().first())*.data == ['kept']
+    }
+
+    def "recording of the original format is read"() {
+        given:
+        def recording = new File(file.parentFile, 'original')
+        new FastOutput(new FileOutputStream(recording)).withCloseable { output ->
+            def kryo = new Kryo()
+            ['first', 'second'].eachWithIndex { data, i ->
+                def record = new OriginalRecord(id: i, timestampNs: i * 10, timestampEpoch: 1000 + i, data: data)
+                'HTTPREQUEST'.getChars(0, 11, record.tag, 0)
+                kryo.writeObject(output, record)
+            }
+        }
+
+        when:
+        def records = readAll(recording)
+
+        then:
+        records*.tag == ['HTTPREQUEST', 'HTTPREQUEST']
+        records*.data == ['first', 'second']
+        records*.id == [0L, 1L]
+        records*.timestampEpoch == [1000L, 1001L]
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+
+    /**
+     * Layout of a record before tag ids were introduced
+     */
+    static class OriginalRecord {
+        public long id
+        public long timestampNs
+        public long timestampEpoch
+        public char[] tag = new char[64]
+        public Object data
+    }
+}
@@ -34,7 +34,8 @@ class InternalRecorderSpec extends Specification {
         })
         then:
         await().until {
-            def newFileName = file.getParentFile().listFiles().first().getName();
+            // the previous file is kept
+            def newFileName = file.getParentFile().listFiles().max { it.name }.getName();
             return !newFileName.equals(fileName);
         }
     }
@@ -67,7 +68,7 @@ class InternalRecorderSpec extends Specification {
         })
         then:
         await().until {
-            def newFileSize = file.getParentFile().listFiles().first().length();
+            def newFileSize = file.getParentFile().listFiles().max { it.name }.length();
             println newFileSize
             return newFileSize < fileSize
         }
@@ -101,6 +102,27 @@ class InternalRecorderSpec extends Specification {
         }
     }
 
+    def "pushed records are flushed once storage thread drains the queue"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).maxBatchSize(16)
+                .maxFlushDelay(10000).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        100.times {
+            recorder.push("test", "data" + it)
+        }
+
+        then:
+        await().atMost(Duration.ONE_SECOND).until {
+            !recorder.hasPendingStores() && file.getParentFile().listFiles().first().length() > 0
+        }
+
+        cleanup:
+        recorder.shutdown()
+    }
+
     def cleanup() {
         file.parentFile.listFiles().each { it -> it.delete() }
         file.parentFile.delete()
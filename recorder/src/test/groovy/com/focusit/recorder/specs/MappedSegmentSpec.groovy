@@ -0,0 +1,54 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class MappedSegmentSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/mapped")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "full segment rolls over to a new file and keeps every record whole"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).memoryMappedSegments(4096)
+                .build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        500.times {
+            recorder.push("test", "payload-" + it)
+        }
+        recorder.shutdown()
+        def segments = file.parentFile.listFiles().sort { it.name.substring('mapped'.length()) as int }
+        def ids = segments.collectMany { readIds(it) }
+
+        then:
+        segments.size() > 1
+        // format header and index footer may take a part of the next region, but the rest is truncated
+        segments.last().length() < 2 * 4096
+        segments.last().length() % 4096 != 0
+        ids == (0L..499L).toList()
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private static List<Long> readIds(File segment) {
+        def ids = []
+        InternalEventReader.open(segment).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                assert record.tag == 'test'
+                ids << record.id
+            }
+        }
+        ids
+    }
+}
@@ -0,0 +1,177 @@
+import com.focusit.jsflight.recorder.internalevent.BlockCompression
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.RecordingCollector
+import spock.lang.Shared
+import spock.lang.Specification
+
+class NetworkSinkSpec extends Specification {
+
+    @Shared
+    File directory = new File("/tmp/record/network")
+
+    def setup() {
+        directory.mkdirs()
+    }
+
+    def "records of several nodes are merged by the collector"() {
+        given:
+        def merged = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/merged").build()
+        merged.openFileForWriting()
+        merged.startRecording()
+        def collector = new RecordingCollector(0, merged, new File(directory, 'collector'))
+        collector.start()
+
+        when:
+        def nodes = (0..<2).collect { n ->
+            Thread.start {
+                def recorder = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/node" + n)
+                        .networkSink('localhost', collector.port)
+                        .networkNodeName('node' + n)
+                        .build()
+                recorder.openFileForWriting()
+                recorder.startRecording()
+                500.times { recorder.push('tag' + n, n + ':' + it) }
+                waitFor { collector.receivedRecords >= 500 * (n + 1) || !recorder.hasPendingStores() }
+                recorder.shutdown()
+            }
+        }
+        nodes*.join()
+        waitFor { collector.receivedRecords == 1000 }
+        collector.close()
+        merged.shutdown()
+        def records = readAll(new File(directory, "merged0"))
+
+        then:
+        records.size() == 1000
+        records.findAll { it.tag == 'tag0' }*.data == (0..<500).collect { '0:' + it }
+        records.findAll { it.tag == 'tag1' }*.data == (0..<500).collect { '1:' + it }
+    }
+
+    def "records are spooled while the collector is unreachable"() {
+        given:
+        def port = new ServerSocket(0).withCloseable { it.localPort }
+        def recorder = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/node")
+                .networkSink('localhost', port)
+                .build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        def merged = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/merged").build()
+        merged.openFileForWriting()
+        merged.startRecording()
+
+        when:
+        // a batch per record overflows the memory queue of the sink
+        300.times {
+            recorder.push('test', it)
+            waitFor { !recorder.hasPendingStores() }
+            Thread.sleep(1)
+        }
+        Thread.sleep(200)
+        def spooled = new File(directory, "node.netspool").length()
+        def collector = new RecordingCollector(port, merged, new File(directory, 'collector'))
+        collector.start()
+        waitFor { collector.receivedRecords == 300 }
+        recorder.shutdown()
+        collector.close()
+        merged.shutdown()
+
+        then:
+        spooled > 0
+        readAll(new File(directory, "merged0"))*.data == (0..<300).toList()
+        !new File(directory, "node.netspool").exists()
+    }
+
+    def "undelivered batches are sent by the next run"() {
+        given:
+        def port = new ServerSocket(0).withCloseable { it.localPort }
+        def builder = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/node")
+                .networkSink('localhost', port)
+        def first = builder.build()
+        first.openFileForWriting()
+        first.startRecording()
+        def merged = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/merged").build()
+        merged.openFileForWriting()
+        merged.startRecording()
+
+        when:
+        100.times {
+            first.push('test', it)
+            waitFor { !first.hasPendingStores() }
+        }
+        first.shutdown()
+        def spooled = new File(directory, "node.netspool").length()
+        def collector = new RecordingCollector(port, merged, new File(directory, 'collector'))
+        collector.start()
+        def second = builder.build()
+        second.openFileForWriting()
+        second.startRecording()
+        (100..<150).each { second.push('test', it) }
+        waitFor { collector.receivedRecords == 150 }
+        second.shutdown()
+        collector.close()
+        merged.shutdown()
+        def state = new Properties()
+        new File(directory, 'collector').withInputStream { state.load(it) }
+        def stream = new File(directory, "node.netspool.stream").text
+
+        then:
+        spooled > 0
+        readAll(new File(directory, "merged0"))*.data == (0..<150).toList()
+        (state.getProperty(stream) as long) > 0
+    }
+
+    def "batches are acknowledged once the collector has written them"() {
+        given:
+        def merged = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/merged")
+                .blockCompression(BlockCompression.DEFLATE)
+                .maxFlushDelay(60000)
+                .build()
+        merged.openFileForWriting()
+        merged.startRecording()
+        def collector = new RecordingCollector(0, merged, new File(directory, 'collector'))
+        collector.start()
+        def node = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/node")
+                .networkSink('localhost', collector.port)
+                .build()
+        node.openFileForWriting()
+        node.startRecording()
+        def sink = node.storageThreads[0].sink
+
+        when:
+        100.times { node.push('test', it) }
+        waitFor { !node.hasPendingStores() && sink.lastSequence > 0 && sink.acknowledged == sink.lastSequence }
+        // the collector is still running, so only what it has written is in the file
+        def written = readAll(new File(directory, "merged0"))*.data
+        node.shutdown()
+        collector.close()
+        merged.shutdown()
+
+        then:
+        sink.acknowledged > 0
+        written == (0..<100).toList()
+    }
+
+    def cleanup() {
+        directory.listFiles().each { it -> it.delete() }
+        directory.delete()
+    }
+
+    private static void waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 10000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,97 @@
+import com.focusit.jsflight.recorder.internalevent.BlockingRecordQueue
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorder
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder.OverflowPolicy
+import com.focusit.jsflight.recorder.internalevent.OverflowHandler
+import com.focusit.jsflight.recorder.internalevent.RecordPool
+import com.focusit.jsflight.recorder.internalevent.SpillFile
+import spock.lang.Shared
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+
+class OverflowHandlerSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/overflow")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "drop newest keeps queued records and counts rejected ones"() {
+        given:
+        def queue = new BlockingRecordQueue(2)
+        def handler = new OverflowHandler(OverflowPolicy.DROP_NEWEST, 0, null, new RecordPool(4))
+
+        when:
+        (0..4).each { handler.enqueue(queue, record(it)) }
+
+        then:
+        handler.dropped == 3
+        queue.poll().id == 0
+        queue.poll().id == 1
+    }
+
+    def "drop oldest keeps the latest records"() {
+        given:
+        def queue = new BlockingRecordQueue(2)
+        def handler = new OverflowHandler(OverflowPolicy.DROP_OLDEST, 0, null, new RecordPool(4))
+
+        when:
+        (0..4).each { handler.enqueue(queue, record(it)) }
+
+        then:
+        handler.dropped == 3
+        queue.poll().id == 3
+        queue.poll().id == 4
+    }
+
+    def "bounded wait gives up after timeout"() {
+        given:
+        def queue = new BlockingRecordQueue(1)
+        def handler = new OverflowHandler(OverflowPolicy.BOUNDED_WAIT, TimeUnit.MILLISECONDS.toNanos(50), null,
+                new RecordPool(4))
+        handler.enqueue(queue, record(0))
+
+        when:
+        def start = System.nanoTime()
+        handler.enqueue(queue, record(1))
+        def waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        then:
+        handler.dropped == 1
+        waited >= 50
+        waited < 1000
+    }
+
+    def "spilled records are replayed in spill order"() {
+        given:
+        def queue = new BlockingRecordQueue(1)
+        def spillFile = new SpillFile(file.absolutePath)
+        def handler = new OverflowHandler(OverflowPolicy.SPILL_TO_DISK, 0, spillFile, new RecordPool(4))
+        def replayed = []
+
+        when:
+        (0..3).each { handler.enqueue(queue, record(it)) }
+        spillFile.replay { replayed << it.id }
+
+        then:
+        handler.dropped == 0
+        handler.spilled == 3
+        queue.poll().id == 0
+        replayed == [1L, 2L, 3L]
+        !spillFile.hasPending()
+        file.parentFile.listFiles().findAll { it.name.contains('.spill') }.isEmpty()
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private static InternalEventRecorder.InternalEventRecord record(long id) {
+        def record = new InternalEventRecorder.InternalEventRecord()
+        record.id = id
+        record
+    }
+}
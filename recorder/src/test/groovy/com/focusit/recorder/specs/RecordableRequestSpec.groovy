@@ -0,0 +1,106 @@
+import com.focusit.jsflight.recorder.internalevent.httprequest.RecordableHttpServletRequest
+import spock.lang.Specification
+
+import javax.servlet.ReadListener
+import javax.servlet.ServletInputStream
+import javax.servlet.http.HttpServletRequest
+
+class RecordableRequestSpec extends Specification {
+
+    def "body read in chunks, lines and skips is captured"() {
+        given:
+        def body = 'first line\nsecond line\n' + ('x' * 5000)
+        def request = new RecordableHttpServletRequest(requestWithBody(body.bytes), 1024 * 1024, 1024 * 1024)
+        def stream = request.inputStream
+        def line = new byte[100]
+
+        when:
+        def lineLength = stream.readLine(line, 0, line.length)
+        stream.skip(5)
+        stream.read(new byte[100])
+        while (stream.read(new byte[1000], 0, 1000) > 0) {
+        }
+
+        then:
+        new String(line, 0, lineLength) == 'first line\n'
+        new String(request.payloadBytes) == body
+        !request.payloadTruncated
+    }
+
+    def "body above max size is truncated"() {
+        given:
+        def body = new byte[10000]
+        new Random(1).nextBytes(body)
+        def request = new RecordableHttpServletRequest(requestWithBody(body), maxSize, spillThreshold)
+
+        when:
+        request.inputStream.bytes
+
+        then:
+        request.payloadBytes == Arrays.copyOf(body, Math.min(maxSize, body.length))
+        request.payloadTruncated == maxSize < body.length
+        request.payloadSize == body.length
+
+        where:
+        maxSize | spillThreshold
+        4000    | 100000
+        4000    | 1000
+        20000   | 1000
+    }
+
+    def "spilled body is read twice and its file is released"() {
+        given:
+        def body = new byte[10000]
+        new Random(2).nextBytes(body)
+        def request = new RecordableHttpServletRequest(requestWithBody(body), 20000, 1000)
+
+        when:
+        request.inputStream.bytes
+        def spilled = spillFiles()
+        def first = request.payloadBytes
+        def second = request.payloadBytes
+        request.release()
+
+        then:
+        first == body
+        second == body
+        spillFiles().size() == spilled.size() - 1
+    }
+
+    def "unread spilled body is deleted on release"() {
+        given:
+        def request = new RecordableHttpServletRequest(requestWithBody(new byte[5000]), 20000, 1000)
+        request.inputStream.bytes
+        def spilled = spillFiles()
+
+        when:
+        request.release()
+
+        then:
+        spillFiles().size() == spilled.size() - 1
+        request.payloadBytes.length == 0
+    }
+
+    private static List<File> spillFiles() {
+        new File(System.getProperty('java.io.tmpdir')).listFiles().findAll { it.name.startsWith('jsflight-body') }
+    }
+
+    private HttpServletRequest requestWithBody(byte[] body) {
+        def input = new ByteArrayInputStream(body)
+        def servletStream = new ServletInputStream() {
+            boolean isFinished() { input.available() == 0 }
+
+            boolean isReady() { true }
+
+            void setReadListener(ReadListener readListener) {}
+
+            int read() { input.read() }
+
+            int read(byte[] b, int off, int len) { input.read(b, off, len) }
+        }
+        Mock(HttpServletRequest) {
+            getContentLength() >> body.length
+            getInputStream() >> servletStream
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import com.focusit.jsflight.recorder.internalevent.httprequest.RecordableHttpServletResponse
+import spock.lang.Specification
+
+import javax.servlet.ServletOutputStream
+import javax.servlet.WriteListener
+import javax.servlet.http.HttpServletResponse
+
+class RecordableResponseSpec extends Specification {
+
+    def sent = new ByteArrayOutputStream()
+
+    def "written body is counted and captured up to the limit"() {
+        given:
+        def response = new RecordableHttpServletResponse(response(), maxBodySize, 1024)
+
+        when:
+        response.outputStream.write('head'.bytes)
+        response.outputStream.write(' '.bytes[0] as int)
+        response.outputStream.write('body text'.bytes)
+
+        then:
+        response.bodySize == 14
+        sent.toString() == 'head body text'
+        response.bodyBytes == captured?.bytes
+        response.status == 201
+        response.headers == ['X-Trace': 'abc']
+
+        where:
+        maxBodySize | captured
+        0           | null
+        6           | 'head b'
+        100         | 'head body text'
+    }
+
+    def "text written by the writer goes to the container writer and is captured"() {
+        given:
+        def response = new RecordableHttpServletResponse(response(), 5, 1024)
+
+        when:
+        response.writer.print('body text')
+        response.writer.println()
+
+        then:
+        // the container writer buffers until the application flushes
+        sent.size() == 0
+        response.bodySize == 9 + System.lineSeparator().length()
+        response.bodyBytes == 'body '.bytes
+
+        when:
+        response.writer.flush()
+
+        then:
+        sent.toString() == 'body text' + System.lineSeparator()
+    }
+
+    def "values of repeated headers are kept"() {
+        given:
+        def wrapped = Stub(HttpServletResponse) {
+            getHeaderNames() >> ['Set-Cookie', 'Vary']
+            getHeaders('Set-Cookie') >> ['a=1; Expires=Thu, 01 Jan 2037 00:00:00 GMT', 'b=2']
+            getHeaders('Vary') >> ['Accept', 'Origin']
+        }
+
+        expect:
+        new RecordableHttpServletResponse(wrapped, 0, 1024).headers == [
+                'Set-Cookie': 'a=1; Expires=Thu, 01 Jan 2037 00:00:00 GMT\nb=2',
+                Vary        : 'Accept, Origin']
+    }
+
+    def "writer and output stream exclude each other"() {
+        given:
+        def response = new RecordableHttpServletResponse(response(), 100, 1024)
+
+        when:
+        first(response)
+        second(response)
+
+        then:
+        thrown(IllegalStateException)
+
+        where:
+        first                          | second
+        { r -> r.writer }              | { r -> r.outputStream }
+        { r -> r.outputStream }        | { r -> r.writer }
+    }
+
+    def "reset drops the recorded body"() {
+        given:
+        def response = new RecordableHttpServletResponse(response(), 100, 1024)
+        response.outputStream.write('error page'.bytes)
+
+        when:
+        reset(response)
+        response.outputStream.write('ok'.bytes)
+
+        then:
+        response.bodySize == 2
+        response.bodyBytes == 'ok'.bytes
+
+        where:
+        reset << [{ it.reset() }, { it.resetBuffer() }]
+    }
+
+    private HttpServletResponse response() {
+        def stream = new ServletOutputStream() {
+            boolean isReady() { true }
+
+            void setWriteListener(WriteListener writeListener) {}
+
+            void write(int b) { sent.write(b) }
+        }
+        Mock(HttpServletResponse) {
+            getOutputStream() >> stream
+            getCharacterEncoding() >> 'UTF-8'
+            getStatus() >> 201
+            getHeaderNames() >> ['X-Trace']
+            getHeaders('X-Trace') >> ['abc']
+            getWriter() >> new PrintWriter(new OutputStreamWriter(sent, 'UTF-8'))
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.monitoring.LatencyHistogram
+import com.focusit.jsflight.recorder.internalevent.monitoring.RecorderMetricsRegistry
+import groovy.json.JsonSlurper
+import spock.lang.Shared
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+
+import static org.awaitility.Awaitility.await
+import static java.util.concurrent.TimeUnit.SECONDS
+
+class RecorderMetricsSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/metrics")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "recorder metrics are published as JSON and MBean"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.absolutePath).storageThreadName('metrics-test')
+                .build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        def mbean = new ObjectName(RecorderMetricsRegistry.DOMAIN
+                + ':type=InternalEventRecorder,name=' + ObjectName.quote('metrics-test'))
+
+        when:
+        100.times {
+            recorder.push('TEST', 'data ' + it)
+        }
+        await().atMost(5, SECONDS).until { recorder.metrics.writtenRecords == 100 }
+        recorder.recordToNewFile()
+        recorder.push('TEST', 'next file')
+        await().atMost(5, SECONDS).until { recorder.metrics.fileRollovers == 1 }
+        def json = new JsonSlurper().parseText(RecorderMetricsRegistry.toJson())
+        def metrics = json.recorders.find { it.name == 'metrics-test' }
+
+        then:
+        metrics.pushedRecords == 101
+        metrics.queueCapacity > 0
+        metrics.serializedBytes > 100 * 'data 0'.length()
+        metrics.flushCount > 0
+        metrics.enqueueMaxNanos > 0
+        metrics.queueSizeMax > 0
+        ManagementFactory.platformMBeanServer.getAttribute(mbean, 'PushedRecords') == 101L
+
+        when:
+        recorder.shutdown()
+
+        then:
+        !ManagementFactory.platformMBeanServer.isRegistered(mbean)
+    }
+
+    def "recorders with the same name are registered apart"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath).storageThreadName('shared-name')
+        def first = builder.build()
+        def second = builder.build()
+
+        when:
+        def names = [first, second]*.metrics*.name
+
+        then:
+        names == ['shared-name', 'shared-name-2']
+        RecorderMetricsRegistry.all*.name.containsAll(names)
+
+        when:
+        first.shutdown()
+        second.shutdown()
+
+        then:
+        !RecorderMetricsRegistry.all*.name.any { it.startsWith('shared-name') }
+    }
+
+    def "histogram percentiles are bucket bounds"() {
+        given:
+        def histogram = new LatencyHistogram()
+
+        when:
+        99.times { histogram.record(1000) }
+        histogram.record(1000000)
+
+        then:
+        histogram.count == 100
+        histogram.getPercentileNs(50) == 1023
+        histogram.getPercentileNs(100) == 1000000
+        histogram.maxNs == 1000000
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+}
@@ -0,0 +1,136 @@
+import com.focusit.jsflight.recorder.EventBatchReader
+import com.focusit.jsflight.recorder.RecorderStorageServlet
+import com.focusit.jsflight.recorder.RecordingProcessor
+import groovy.json.JsonOutput
+import spock.lang.Specification
+
+import javax.servlet.ReadListener
+import javax.servlet.ServletInputStream
+import javax.servlet.http.HttpServletRequest
+import javax.servlet.http.HttpServletResponse
+import java.util.zip.GZIPOutputStream
+
+class RecorderStorageServletSpec extends Specification {
+
+    def events = ['{"type":"click","target":"a\\"b"}', '{"type":"keypress","char":"\\u044f\\n"}']
+
+    def cleanup() {
+        RecorderStorageServlet.setProcessor(null)
+    }
+
+    def "batch reader streams events of a JSON array"() {
+        when:
+        def read = new EventBatchReader(new StringReader(json)).collect()
+
+        then:
+        read == expected
+
+        where:
+        json                               | expected
+        ''                                 | []
+        ' [ ] '                            | []
+        '["a\\"b", "c\\u0041"]'            | ['a"b', 'cA']
+        '[{"a":[1,{"b":"]"}]}, 2, null ]'  | ['{"a":[1,{"b":"]"}]}', '2', 'null']
+    }
+
+    def "malformed batch is rejected"() {
+        when:
+        new EventBatchReader(new StringReader(json)).collect()
+
+        then:
+        thrown(UncheckedIOException)
+
+        where:
+        json << ['{}', '[1 2]', '[1,]', '["a"']
+    }
+
+    def "JSON body is streamed to the processor"() {
+        given:
+        def received = []
+        RecorderStorageServlet.setProcessor(Mock(RecordingProcessor) {
+            processStoreEvent(_, _, _ as Reader) >> { req, resp, Reader data ->
+                received.addAll(new EventBatchReader(data).collect())
+            }
+        })
+        def body = JsonOutput.toJson(events).getBytes('UTF-8')
+        if (gzipped) {
+            def compressed = new ByteArrayOutputStream()
+            new GZIPOutputStream(compressed).withCloseable { it.write(body) }
+            body = compressed.toByteArray()
+        }
+
+        when:
+        new RecorderStorageServlet().doPost(request('application/json; charset=UTF-8', encoding, body),
+                Mock(HttpServletResponse))
+
+        then:
+        received == events
+
+        where:
+        encoding | gzipped
+        null     | false
+        'gzip'   | true
+        // beacons can't set headers
+        null     | true
+    }
+
+    def "url encoded form is still accepted"() {
+        given:
+        def processor = Mock(RecordingProcessor)
+        RecorderStorageServlet.setProcessor(processor)
+        def body = ('data=' + URLEncoder.encode(JsonOutput.toJson(events), 'UTF-8')).bytes
+
+        when:
+        new RecorderStorageServlet().doPost(request('application/x-www-form-urlencoded', null, body),
+                Mock(HttpServletResponse))
+
+        then:
+        1 * processor.processStoreEvent(_, _, JsonOutput.toJson(events))
+    }
+
+    def "gzipped body inflated beyond the limit is rejected"() {
+        given:
+        RecorderStorageServlet.setProcessor(Mock(RecordingProcessor) {
+            processStoreEvent(_, _, _ as Reader) >> { req, resp, Reader data -> new EventBatchReader(data).collect() }
+        })
+        RecorderStorageServlet.setMaxInflatedSize(1024 * 1024)
+        def compressed = new ByteArrayOutputStream()
+        new GZIPOutputStream(compressed).withCloseable {
+            it.write(JsonOutput.toJson(['x' * 1000] * 2000).getBytes('UTF-8'))
+        }
+        def response = Mock(HttpServletResponse)
+
+        when:
+        new RecorderStorageServlet().doPost(request(contentType, 'gzip', compressed.toByteArray()), response)
+
+        then:
+        compressed.size() < 64 * 1024
+        1 * response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE)
+
+        cleanup:
+        RecorderStorageServlet.setMaxInflatedSize(RecorderStorageServlet.DEFAULT_MAX_INFLATED_SIZE)
+
+        where:
+        contentType << ['application/json', 'application/x-www-form-urlencoded']
+    }
+
+    private HttpServletRequest request(String contentType, String encoding, byte[] body) {
+        def input = new ByteArrayInputStream(body)
+        def servletStream = new ServletInputStream() {
+            boolean isFinished() { input.available() == 0 }
+
+            boolean isReady() { true }
+
+            void setReadListener(ReadListener readListener) {}
+
+            int read() { input.read() }
+
+            int read(byte[] b, int off, int len) { input.read(b, off, len) }
+        }
+        Mock(HttpServletRequest) {
+            getContentType() >> contentType
+            getHeader('Content-Encoding') >> encoding
+            getInputStream() >> servletStream
+        }
+    }
+}
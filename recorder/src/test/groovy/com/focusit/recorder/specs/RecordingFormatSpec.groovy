@@ -0,0 +1,52 @@
+import com.focusit.jsflight.recorder.internalevent.IdRecordInfo
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class RecordingFormatSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/format")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "registered classes are stored by id"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).indexInterval(0).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        100.times {
+            recorder.push(IdRecordInfo.ID_RECORD_TAG, new IdRecordInfo('tag', 'type', it))
+        }
+        recorder.shutdown()
+        def recording = file.parentFile.listFiles().first()
+        def records = readAll(recording)
+
+        then:
+        // class name is written only once, by the format header
+        recording.text.count('com.focusit.jsflight.recorder.internalevent.IdRecordInf') == 1
+        records*.data*.generatedId == (0L..<100L).toList()
+        records*.data*.type.unique() == ['type']
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,109 @@
+import com.focusit.jsflight.recorder.internalevent.BlockCompression
+import com.focusit.jsflight.recorder.internalevent.IndexedEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.RecordingIndex
+import spock.lang.Shared
+import spock.lang.Specification
+
+class RecordingIndexSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/indexed")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "records are found by tag through the index"() {
+        given:
+        def recording = record(compression)
+        def reader = new IndexedEventReader(recording)
+
+        when:
+        def rare = reader.readTag('RARE')
+        def missing = reader.readTag('MISSING')
+
+        then:
+        reader.indexed
+        RecordingIndex.read(recording).entries.size() == 50
+        rare*.data == (0..<1000).findAll { it % 300 == 0 }.collect { 'rare ' + it }
+        rare*.tag.unique() == ['RARE']
+        missing.empty
+
+        where:
+        compression << [null, 'gzip', BlockCompression.LZ4]
+    }
+
+    def "records are found by time range through the index"() {
+        given:
+        def recording = record(compression)
+        def all = readAll(recording)
+        def from = all[400].timestampEpoch
+        def to = all[600].timestampEpoch
+
+        when:
+        def found = new IndexedEventReader(recording).readTimeRange(from, to)
+
+        then:
+        found*.id == all.findAll { it.timestampEpoch >= from && it.timestampEpoch <= to }*.id
+
+        where:
+        compression << [null, 'gzip', BlockCompression.DEFLATE]
+    }
+
+    def "file without index is scanned"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).indexInterval(0).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        recorder.push('A', 'a')
+        recorder.push('B', 'b')
+        recorder.shutdown()
+        def reader = new IndexedEventReader(file.parentFile.listFiles().first())
+
+        expect:
+        !reader.indexed
+        reader.readTag('B')*.data == ['b']
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private File record(compression) {
+        def builder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).indexInterval(20)
+        if (compression == 'gzip') {
+            builder.storeInGzip()
+        } else if (compression != null) {
+            builder.blockCompression(compression, 512)
+        }
+        def recorder = builder.build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        1000.times {
+            if (it % 300 == 0) {
+                recorder.push('RARE', 'rare ' + it)
+            } else {
+                recorder.push('COMMON', 'common ' + it)
+            }
+            if (it % 100 == 0) {
+                sleep(2)
+            }
+        }
+        recorder.shutdown()
+        file.parentFile.listFiles().first()
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,115 @@
+import com.focusit.jsflight.recorder.internalevent.BlockCompression
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.RecordingRecovery
+import spock.lang.Shared
+import spock.lang.Specification
+
+class RecordingRecoverySpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/recovery")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "records before a cut frame are read"() {
+        given:
+        def recording = cut(record(InternalEventRecorderBuilder.builderFor(file.absolutePath)), 0.6)
+
+        when:
+        def reader = InternalEventReader.open(recording)
+        def records = readAll(reader)
+
+        then:
+        records.size() > 0
+        records.size() < 500
+        records*.data == (0..<records.size()).collect { 'payload ' + it }
+        reader.isTruncated()
+    }
+
+    def "cut file is recovered to its last valid frame"() {
+        given:
+        def recording = cut(record(InternalEventRecorderBuilder.builderFor(file.absolutePath)), 0.6)
+        def expected = readAll(InternalEventReader.open(recording)).size()
+
+        when:
+        def removed = RecordingRecovery.recover(recording)
+        def reader = InternalEventReader.open(recording)
+        def records = readAll(reader)
+
+        then:
+        removed > 0
+        records.size() == expected
+        !reader.isTruncated()
+        RecordingRecovery.recover(recording) == -1
+    }
+
+    def "block compressed file is recovered to its last valid frame"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .blockCompression(BlockCompression.LZ4, 1024)
+        def recording = cut(record(builder), 0.6)
+        def expected = readAll(InternalEventReader.open(recording)).size()
+
+        when:
+        def removed = RecordingRecovery.recover(recording)
+        def reader = InternalEventReader.open(recording)
+        def records = readAll(reader)
+
+        then:
+        removed > 0
+        records.size() == expected
+        records.size() > 0
+        records*.data == (0..<records.size()).collect { 'payload ' + it }
+        !reader.isTruncated()
+        RecordingRecovery.recover(recording) == -1
+    }
+
+    def "finished file is left intact"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .fsyncPolicy(InternalEventRecorderBuilder.FsyncPolicy.PER_BATCH)
+        def recording = record(builder)
+        def length = recording.length()
+
+        expect:
+        RecordingRecovery.recover(recording) == -1
+        recording.length() == length
+        readAll(InternalEventReader.open(recording)).size() == 500
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private File record(InternalEventRecorderBuilder builder) {
+        def recorder = builder.build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        500.times {
+            recorder.push('HTTPREQUEST', 'payload ' + it)
+        }
+        recorder.shutdown()
+        file.parentFile.listFiles().first()
+    }
+
+    private static File cut(File recording, double part) {
+        def bytes = recording.bytes
+        recording.bytes = Arrays.copyOf(bytes, (int) (bytes.length * part))
+        recording
+    }
+
+    private static List readAll(InternalEventReader reader) {
+        def records = []
+        reader.withCloseable {
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,69 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.httprequest.RequestSamplers
+import spock.lang.Specification
+
+import javax.servlet.http.HttpServletRequest
+
+class RequestSamplerSpec extends Specification {
+
+    def request = Mock(HttpServletRequest) {
+        getRequestURI() >> '/app/api/search'
+    }
+
+    def "fixed ratio weights add up to the number of requests on average"() {
+        given:
+        def sampler = RequestSamplers.ratio(0.3)
+
+        when:
+        def weights = (1..30000).collect { sampler.sample(request) }
+
+        then:
+        weights.count { it > 0 } in 8000..10000
+        weights.findAll { it > 0 }.every { it in [3L, 4L] }
+        (weights.sum() as int) in 27000..33000
+        RequestSamplers.ratio(0).sample(request) == 0
+        RequestSamplers.ratio(1).sample(request) == 1
+    }
+
+    def "ratio weights don't depend on requests of other endpoints"() {
+        given:
+        def sampler = RequestSamplers.ratio(0.5)
+        def other = Mock(HttpServletRequest) {
+            getRequestURI() >> '/app/index.html'
+        }
+
+        when:
+        1000.times { sampler.sample(other) }
+        def weights = (1..100).collect { sampler.sample(request) }.findAll { it > 0 }
+
+        then:
+        weights.every { it == 2L }
+    }
+
+    def "token bucket limits requests matching a pattern"() {
+        given:
+        def sampler = RequestSamplers.tokenBuckets().limit('/app/api/.*', 0.001, 5).build()
+        def other = Mock(HttpServletRequest) {
+            getRequestURI() >> '/app/index.html'
+        }
+
+        when:
+        def weights = (1..20).collect { sampler.sample(request) }
+
+        then:
+        weights == [1L] * 5 + [0L] * 15
+        sampler.sample(other) == 1
+    }
+
+    def "adaptive sampler records everything while the queue is empty"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor('/tmp/record/adaptive').build()
+        def sampler = RequestSamplers.adaptive(recorder, 1, 0)
+
+        expect:
+        (1..100).every { sampler.sample(request) == 1 }
+
+        cleanup:
+        recorder.shutdown()
+    }
+}
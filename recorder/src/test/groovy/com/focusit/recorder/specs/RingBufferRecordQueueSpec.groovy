@@ -0,0 +1,69 @@
+import com.focusit.jsflight.recorder.internalevent.RingBufferRecordQueue
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class RingBufferRecordQueueSpec extends Specification {
+
+    def "capacity is rounded up to power of two"() {
+        expect:
+        new RingBufferRecordQueue(requested).capacity() == expected
+
+        where:
+        requested | expected
+        1         | 1
+        3         | 4
+        4096      | 4096
+        5000      | 8192
+    }
+
+    def "full queue rejects offer until consumer frees a slot"() {
+        given:
+        def queue = new RingBufferRecordQueue(2)
+
+        expect:
+        queue.offer(1)
+        queue.offer(2)
+        !queue.offer(3)
+        queue.size() == 2
+        queue.poll() == 1
+        queue.offer(3)
+        queue.poll() == 2
+        queue.poll() == 3
+        queue.poll() == null
+        queue.isEmpty()
+    }
+
+    def "concurrent producers lose no element"() {
+        given:
+        def queue = new RingBufferRecordQueue(64)
+        def producers = 8
+        def perProducer = 10000
+        def pool = Executors.newFixedThreadPool(producers)
+        def start = new CountDownLatch(1)
+        def received = new HashSet<Long>()
+
+        when:
+        producers.times { p ->
+            pool.submit {
+                start.await()
+                perProducer.times { i -> queue.put((long) (p * perProducer + i)) }
+            }
+        }
+        start.countDown()
+        while (received.size() < producers * perProducer) {
+            def value = queue.poll()
+            if (value != null) {
+                assert received.add(value)
+            }
+        }
+        pool.shutdown()
+
+        then:
+        pool.awaitTermination(10, TimeUnit.SECONDS)
+        queue.isEmpty()
+        received.size() == producers * perProducer
+    }
+}
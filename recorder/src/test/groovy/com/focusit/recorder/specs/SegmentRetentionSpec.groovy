@@ -0,0 +1,124 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import spock.lang.Shared
+import spock.lang.Specification
+
+class SegmentRetentionSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/retention")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "file is rotated by size and old files are deleted"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .maxSegmentSize(4096)
+                .retainFiles(2)
+
+        when:
+        record(builder)
+
+        then:
+        // two closed files and the last one
+        def files = files()
+        files.size() == 3
+        files.collect { number(it) } == (0..2).collect { number(files.last()) - 2 + it }
+    }
+
+    def "closed files are compressed"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .maxSegmentSize(4096)
+                .compressClosedFiles()
+
+        when:
+        record(builder)
+        def files = files()
+        def records = files.sum { readAll(it) }
+
+        then:
+        files.count { it.name.endsWith('.gz') } == files.size() - 1
+        records*.data == (0..<1000).collect { 'payload ' + it }
+    }
+
+    def "total size of closed files is limited"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .maxSegmentSize(4096)
+                .retainTotalSize(10000)
+
+        when:
+        record(builder)
+        def closed = files().dropRight(1)
+
+        then:
+        closed.size() > 0
+        closed.sum { it.length() } <= 10000
+    }
+
+    def "dated files rolled over within one second are not overwritten"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .rolloverStrategy(100000)
+                .maxSegmentSize(4096)
+                .retainFiles(1000)
+
+        when:
+        record(builder)
+        def files = file.parentFile.listFiles().sort { it.lastModified() }
+
+        then:
+        files.size() > 2
+        files.sum { readAll(it) }*.data.sort() == (0..<1000).collect { 'payload ' + it }.sort()
+    }
+
+    def "rollover keeps the previous file by default"() {
+        given:
+        def builder = InternalEventRecorderBuilder.builderFor(file.absolutePath)
+                .rolloverStrategy(100000)
+                .maxSegmentSize(4096)
+
+        when:
+        record(builder)
+
+        then:
+        file.parentFile.listFiles().size() == 2
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+
+    private void record(InternalEventRecorderBuilder builder) {
+        def recorder = builder.build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+        1000.times {
+            recorder.push('HTTPREQUEST', 'payload ' + it)
+        }
+        recorder.shutdown()
+    }
+
+    private List<File> files() {
+        file.parentFile.listFiles().sort { number(it) }
+    }
+
+    private static int number(File recording) {
+        (recording.name =~ /\d+/)[0] as int
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
@@ -0,0 +1,49 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.MergingEventReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class ShardedRecorderSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/sharded")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "merged shards give every record in id order"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath()).shards(4)
+                .queueType(InternalEventRecorderBuilder.QueueType.RING_BUFFER)
+                .overflowPolicy(InternalEventRecorderBuilder.OverflowPolicy.BLOCK).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        def producers = (0..<8).collect { p ->
+            Thread.start {
+                1000.times { recorder.push('test', p) }
+            }
+        }
+        producers*.join()
+        recorder.shutdown()
+        def shards = (0..<4).collect { [new File(file.absolutePath + "_shard" + it + "0")] }
+        def ids = []
+        new MergingEventReader(shards).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                ids << record.id
+            }
+        }
+
+        then:
+        shards.count { it.first().length() > 0 } > 1
+        ids == (0L..<8000L).toList()
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+}
@@ -0,0 +1,79 @@
+import com.focusit.jsflight.recorder.internalevent.BlockCompression
+import com.focusit.jsflight.recorder.internalevent.IdRecordInfo
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.MergingEventReader
+import spock.lang.Shared
+import spock.lang.Specification
+
+class TagRoutingSpec extends Specification {
+
+    @Shared
+    File directory = new File("/tmp/record/routing")
+
+    def setup() {
+        directory.mkdirs()
+    }
+
+    def "routed tags are stored in their own files with global ids"() {
+        given:
+        def ids = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/ids")
+                .blockCompression(BlockCompression.LZ4)
+        def recorder = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/main")
+                .route(ids, IdRecordInfo.ID_RECORD_TAG)
+                .build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        300.times {
+            recorder.push(it % 3 == 0 ? IdRecordInfo.ID_RECORD_TAG : 'HTTPREQUEST', 'payload ' + it)
+        }
+        recorder.shutdown()
+        def main = readAll(new File(directory, "main0"))
+        def routed = readAll(new File(directory, "ids0"))
+        def merged = []
+        new MergingEventReader([[new File(directory, "main0")], [new File(directory, "ids0")]]).withCloseable {
+            def record
+            while ((record = it.read()) != null) {
+                merged << record.id
+            }
+        }
+
+        then:
+        main*.tag.unique() == ['HTTPREQUEST']
+        main.size() == 200
+        routed*.tag.unique() == [IdRecordInfo.ID_RECORD_TAG]
+        routed*.id == (0L..<300L).findAll { it % 3 == 0 }
+        merged == (0L..<300L).toList()
+    }
+
+    def "tag can't be routed twice"() {
+        given:
+        def route = InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/route")
+
+        when:
+        InternalEventRecorderBuilder.builderFor(directory.absolutePath + "/main")
+                .route(route, 'a', 'b')
+                .route(route, ' b ')
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def cleanup() {
+        directory.listFiles().each { it -> it.delete() }
+        directory.delete()
+    }
+
+    private static List readAll(File recording) {
+        def records = []
+        InternalEventReader.open(recording).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+        records
+    }
+}
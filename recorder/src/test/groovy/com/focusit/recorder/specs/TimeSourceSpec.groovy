@@ -0,0 +1,70 @@
+import com.focusit.jsflight.recorder.internalevent.InternalEventReader
+import com.focusit.jsflight.recorder.internalevent.InternalEventRecorderBuilder
+import com.focusit.jsflight.recorder.internalevent.TimeSources
+import spock.lang.Shared
+import spock.lang.Specification
+
+class TimeSourceSpec extends Specification {
+
+    @Shared
+    File file = new File("/tmp/record/time")
+
+    def setup() {
+        file.parentFile.mkdirs()
+    }
+
+    def "epoch time derived from nano time follows system clock"() {
+        given:
+        timeSource.start()
+        sleep(50)
+
+        when:
+        def before = System.currentTimeMillis()
+        def epoch = timeSource.toEpochMillis(timeSource.nanoTime())
+        def after = System.currentTimeMillis()
+
+        then:
+        epoch >= before - 20
+        epoch <= after + 20
+
+        cleanup:
+        timeSource.stop()
+
+        where:
+        timeSource << [TimeSources.direct(), TimeSources.cached(5), TimeSources.hybrid(1000), TimeSources.hybrid(0)]
+    }
+
+    def "recorder stamps records with configured time source"() {
+        given:
+        def recorder = InternalEventRecorderBuilder.builderFor(file.getAbsolutePath())
+                .timeSource(TimeSources.hybrid(1000)).build()
+        recorder.openFileForWriting()
+        recorder.startRecording()
+
+        when:
+        def startNs = System.nanoTime()
+        recorder.push('first', null)
+        sleep(20)
+        recorder.push('second', null)
+        def endNs = System.nanoTime()
+        recorder.shutdown()
+        def records = []
+        InternalEventReader.open(file.parentFile.listFiles().first()).withCloseable { reader ->
+            def record
+            while ((record = reader.read()) != null) {
+                records << record
+            }
+        }
+
+        then:
+        records.size() == 2
+        records.every { it.timestampNs >= startNs && it.timestampNs <= endNs }
+        records[1].timestampNs - records[0].timestampNs >= 20000000L
+        records[1].timestampEpoch - records[0].timestampEpoch >= 19
+    }
+
+    def cleanup() {
+        file.parentFile.listFiles().each { it -> it.delete() }
+        file.parentFile.delete()
+    }
+}